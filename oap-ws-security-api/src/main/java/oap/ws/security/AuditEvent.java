@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import lombok.ToString;
+
+/**
+ * One line of the {@link AuditLog}. {@code actor} is the user acting (or trying to), {@code subject} what was acted
+ * upon, e.g. a web method, a user or an organization.
+ */
+@ToString
+public class AuditEvent {
+
+    public long time;
+    public Type type;
+    public String actor;
+    public String subject;
+    public String ip;
+
+    public AuditEvent() {
+    }
+
+    public AuditEvent( Type type, String actor, String subject, String ip ) {
+        this.time = System.currentTimeMillis();
+        this.type = type;
+        this.actor = actor;
+        this.subject = subject;
+        this.ip = ip;
+    }
+
+    public enum Type {
+        LOGIN( false ),
+        LOGIN_FAILED( true ),
+        LOGOUT( false ),
+        UNAUTHORIZED( true ),
+        FORBIDDEN( true ),
+        ORGANIZATION_STORED( false ),
+        ORGANIZATION_DELETED( false ),
+        USER_STORED( false ),
+        USER_IMPORTED( false ),
+        USER_DELETED( false );
+
+        /**
+         * Events anybody can trigger at will, and that are therefore shed first when the log can't keep up.
+         */
+        public final boolean sheddable;
+
+        Type( boolean sheddable ) {
+            this.sheddable = sheddable;
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.json.Binder;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Audit trail of authentication and authorization events, kept off the request path: {@link #log(AuditEvent)}
+ * only claims a slot in a lock-free ring of {@code capacity} events, and a single writer thread appends them in
+ * batches of up to {@code batchSize} as JSON lines to {@code audit-<time>.log} files under {@code path}. A file is
+ * rotated when it reaches {@code maxFileSize} bytes or the day changes.
+ * <p>
+ * When the ring is full, an event waits up to {@code offerTimeout} milliseconds for the writer and is then dropped.
+ * {@link AuditEvent.Type#sheddable Sheddable} events, which floods of garbage requests produce, never wait and are
+ * dropped once the ring is three quarters full, so that they can't crowd out logins, logouts and changes.
+ * <p>
+ * A {@code capacity} of {@code 0}, the module default, disables the log: events are discarded and nothing is
+ * written under {@code path}.
+ */
+@Slf4j
+public class AuditLog {
+
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormat.forPattern( "yyyy-MM-dd-HH-mm-ss-SSS" );
+    private static final byte[] NEWLINE = { '\n' };
+
+    private final Path path;
+    private final int batchSize;
+    private final long maxFileSize;
+    private final long offerTimeout;
+    private final Ring ring;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder files = new LongAdder();
+    private FileChannel channel;
+    private long fileSize;
+    private int fileDay;
+    private Thread writer;
+    private volatile boolean running;
+
+    public AuditLog( Path path, int capacity, int batchSize, long maxFileSize, long offerTimeout ) {
+        this.path = path;
+        this.batchSize = batchSize;
+        this.maxFileSize = maxFileSize;
+        this.offerTimeout = offerTimeout;
+        this.ring = capacity > 0 ? new Ring( capacity ) : null;
+    }
+
+    /**
+     * @return a log that discards every event
+     */
+    public static AuditLog disabled() {
+        return new AuditLog( null, 0, 0, 0, 0 );
+    }
+
+    public void log( AuditEvent event ) {
+        if( ring == null ) return;
+
+        if( event.type.sheddable ) {
+            if( ring.size() >= ring.capacity() / 4 * 3 || !ring.offer( event ) ) shed.increment();
+
+            return;
+        }
+
+        if( ring.offer( event ) ) return;
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( offerTimeout );
+        while( System.nanoTime() < deadline && running ) {
+            LockSupport.parkNanos( TimeUnit.MICROSECONDS.toNanos( 100 ) );
+
+            if( ring.offer( event ) ) return;
+        }
+
+        dropped.increment();
+    }
+
+    public void start() {
+        if( ring == null ) return;
+
+        try {
+            Files.createDirectories( path );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+
+        running = true;
+        writer = new Thread( this::write, "audit-log" );
+        writer.setDaemon( true );
+        writer.start();
+    }
+
+    public void stop() {
+        if( writer == null ) return;
+
+        running = false;
+        LockSupport.unpark( writer );
+        try {
+            writer.join();
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "queued", ring != null ? ring.size() : 0 );
+        stats.put( "written", written.sum() );
+        stats.put( "dropped", dropped.sum() );
+        stats.put( "shed", shed.sum() );
+        stats.put( "failed", failed.sum() );
+        stats.put( "batches", batches.sum() );
+        stats.put( "files", files.sum() );
+
+        return stats;
+    }
+
+    private void write() {
+        final ByteBuffer[] batch = new ByteBuffer[batchSize * 2];
+
+        while( true ) {
+            int events = 0;
+            AuditEvent event;
+            while( events < batchSize && ( event = ring.poll() ) != null ) {
+                batch[events * 2] = ByteBuffer.wrap( Binder.json.marshal( event ).getBytes( StandardCharsets.UTF_8 ) );
+                batch[events * 2 + 1] = ByteBuffer.wrap( NEWLINE );
+                events++;
+            }
+
+            if( events > 0 ) {
+                try {
+                    append( batch, events * 2 );
+                    written.add( events );
+                    batches.increment();
+                } catch( IOException e ) {
+                    log.error( "Failed to write " + events + " audit events", e );
+                    failed.add( events );
+                    close();
+                }
+                for( int i = 0; i < events * 2; i++ ) batch[i] = null;
+            } else if( running ) LockSupport.parkNanos( TimeUnit.MILLISECONDS.toNanos( 10 ) );
+            else break;
+        }
+
+        close();
+    }
+
+    private void append( ByteBuffer[] buffers, int length ) throws IOException {
+        final DateTime now = DateTime.now();
+        if( channel == null || fileSize >= maxFileSize || now.getDayOfYear() != fileDay ) {
+            close();
+
+            channel = FileChannel.open( path.resolve( "audit-" + FILE_TIME.print( now ) + ".log" ), CREATE, WRITE, APPEND );
+            fileSize = channel.size();
+            fileDay = now.getDayOfYear();
+            files.increment();
+        }
+
+        long remaining = 0;
+        for( int i = 0; i < length; i++ ) remaining += buffers[i].remaining();
+        fileSize += remaining;
+        while( remaining > 0 ) remaining -= channel.write( buffers, 0, length );
+    }
+
+    private void close() {
+        if( channel == null ) return;
+
+        try {
+            channel.close();
+        } catch( IOException e ) {
+            log.error( "Failed to close audit log", e );
+        }
+        channel = null;
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer ring: producers claim a position with a CAS on {@code tail}, and each
+     * slot's sequence tells whether it is free for the position ({@code == position}) or holds its event
+     * ({@code == position + 1}).
+     */
+    static class Ring {
+        private final AtomicReferenceArray<AuditEvent> events;
+        private final AtomicLongArray sequences;
+        private final AtomicLong tail = new AtomicLong();
+        private final int mask;
+        private volatile long head;
+
+        Ring( int capacity ) {
+            final int size = Integer.highestOneBit( Math.max( capacity - 1, 1 ) ) << 1;
+
+            this.events = new AtomicReferenceArray<>( size );
+            this.sequences = new AtomicLongArray( size );
+            this.mask = size - 1;
+            for( int i = 0; i < size; i++ ) sequences.set( i, i );
+        }
+
+        boolean offer( AuditEvent event ) {
+            while( true ) {
+                final long position = tail.get();
+                final int slot = ( int ) position & mask;
+                final long sequence = sequences.get( slot );
+
+                if( sequence < position ) return false;
+                if( sequence == position && tail.compareAndSet( position, position + 1 ) ) {
+                    events.lazySet( slot, event );
+                    sequences.lazySet( slot, position + 1 );
+
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Only called by the writer thread.
+         */
+        AuditEvent poll() {
+            final long position = head;
+            final int slot = ( int ) position & mask;
+            if( sequences.get( slot ) != position + 1 ) return null;
+
+            final AuditEvent event = events.get( slot );
+            events.lazySet( slot, null );
+            sequences.lazySet( slot, position + mask + 1 );
+            head = position + 1;
+
+            return event;
+        }
+
+        int size() {
+            return ( int ) Math.max( 0, tail.get() - head );
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps recently resolved tokens next to the interceptor so that a remote {@link TokenService} is asked at most
+ * once per token per {@code expiration} milliseconds. Unknown ids are remembered for {@code negativeExpiration}
+ * milliseconds, so repeated garbage tokens don't reach the security server either.
+ * <p>
+ * Logouts reach the cache through {@link #run()}, which is scheduled by the kernel and pulls only the revocations
+ * appended to the server's log since the last poll. Revoked ids are kept as tombstones for
+ * {@code revocationRetention} milliseconds so that a lookup racing with the poll can't put a revoked token back;
+ * when signed tokens are validated below this cache, the retention must cover their whole lifetime. Signed ids are
+ * compared without their shard prefix. A {@link SignedTokenService} below this cache only validates signed ids
+ * locally once the polls have been complete for {@code revocationRetention}: after startup, a server restart or a
+ * gap in the revocation log, tombstones may be missing, so signed ids are looked up remotely until then.
+ * <p>
+ * Concurrent misses for the same id share one call to {@code tokenService}; {@code coalesced} in {@link #stats()}
+ * counts the remote calls saved that way.
+ * <p>
+ * If {@code tokenService} keeps a {@link TokenFilter} of live token ids, {@link #run()} replicates it as well, and
+ * unsigned ids the filter has never seen are rejected without a remote call ({@code filtered} in {@link #stats()}).
+ * A miss is only trusted for ids the server had reserved by the last poll (see {@link LiveTokens}); newer ids, and
+ * every id once the last successful poll is older than {@code liveTokensMaxAge} milliseconds, are looked up remotely
+ * ({@code unfiltered} counts those lookups).
+ */
+@Slf4j
+public class CachingTokenService implements AsyncTokenService, Runnable {
+
+    private final TokenService tokenService;
+    private final Cache<String, Token> tokens;
+    private final Cache<String, Boolean> unknownTokens;
+    private final Cache<String, Boolean> revokedTokens;
+    private final ConcurrentMap<String, CompletableFuture<Optional<Token>>> loads = new ConcurrentHashMap<>();
+    private final LatencyHistogram remoteLatency = new LatencyHistogram();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder filtered = new LongAdder();
+    private final LongAdder unfiltered = new LongAdder();
+    private final long revocationRetention;
+    private final long liveTokensMaxAge;
+    private volatile Replica liveTokens;
+    private volatile long liveTokensRefreshed;
+    private long epoch;
+    private long sequence;
+    private long liveTokensEpoch;
+    private long liveTokensSequence;
+
+    public CachingTokenService( TokenService tokenService, long maximumSize, long expiration, long negativeExpiration ) {
+        this( tokenService, maximumSize, expiration, negativeExpiration, expiration );
+    }
+
+    public CachingTokenService( TokenService tokenService, long maximumSize, long expiration, long negativeExpiration,
+                                long revocationRetention ) {
+        this( tokenService, maximumSize, expiration, negativeExpiration, revocationRetention, 5000 );
+    }
+
+    /**
+     * @param liveTokensMaxAge milliseconds since the last successful poll after which the replicated filter of live
+     *                         token ids is no longer used to reject ids
+     */
+    public CachingTokenService( TokenService tokenService, long maximumSize, long expiration, long negativeExpiration,
+                                long revocationRetention, long liveTokensMaxAge ) {
+        this.tokenService = tokenService;
+        this.revocationRetention = revocationRetention;
+        this.liveTokensMaxAge = liveTokensMaxAge;
+        this.tokens = CacheBuilder.newBuilder()
+            .maximumSize( maximumSize )
+            .expireAfterWrite( expiration, TimeUnit.MILLISECONDS )
+            .recordStats()
+            .build();
+        this.unknownTokens = CacheBuilder.newBuilder()
+            .maximumSize( maximumSize )
+            .expireAfterWrite( negativeExpiration, TimeUnit.MILLISECONDS )
+            .build();
+        this.revokedTokens = CacheBuilder.newBuilder()
+            .maximumSize( maximumSize )
+            .expireAfterWrite( revocationRetention, TimeUnit.MILLISECONDS )
+            .build();
+
+        trustSignaturesAfter( Long.MAX_VALUE );
+    }
+
+    @Override
+    public Optional<Token> getToken( String tokenId ) {
+        final Optional<Token> cached = cached( tokenId );
+        if( cached != null ) return cached;
+
+        final CompletableFuture<Optional<Token>> load = new CompletableFuture<>();
+        final CompletableFuture<Optional<Token>> pending = loads.putIfAbsent( tokenId, load );
+        if( pending != null ) {
+            coalesced.increment();
+
+            return await( pending );
+        }
+
+        try {
+            final long start = System.nanoTime();
+            final Optional<Token> token = tokenService.getToken( tokenId ).map( Principals::share );
+            remoteLatency.record( System.nanoTime() - start );
+
+            final Optional<Token> remembered = remember( tokenId, token );
+            loads.remove( tokenId, load );
+            load.complete( remembered );
+
+            return remembered;
+        } catch( Throwable e ) {
+            loads.remove( tokenId, load );
+            load.completeExceptionally( e );
+
+            throw e;
+        }
+    }
+
+    /**
+     * Like {@link #getToken(String)}, but misses are resolved asynchronously if {@code tokenService} supports it.
+     */
+    @Override
+    public CompletableFuture<Optional<Token>> getTokenAsync( String tokenId ) {
+        final Optional<Token> cached = cached( tokenId );
+        if( cached != null ) return CompletableFuture.completedFuture( cached );
+
+        final CompletableFuture<Optional<Token>> load = new CompletableFuture<>();
+        final CompletableFuture<Optional<Token>> pending = loads.putIfAbsent( tokenId, load );
+        if( pending != null ) {
+            coalesced.increment();
+
+            return pending;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            AsyncTokenService.getTokenAsync( tokenService, tokenId ).whenComplete( ( token, e ) -> {
+                if( e != null ) {
+                    loads.remove( tokenId, load );
+                    load.completeExceptionally( e );
+                } else {
+                    remoteLatency.record( System.nanoTime() - start );
+
+                    final Optional<Token> remembered = remember( tokenId, token.map( Principals::share ) );
+                    loads.remove( tokenId, load );
+                    load.complete( remembered );
+                }
+            } );
+        } catch( Throwable e ) {
+            loads.remove( tokenId, load );
+            load.completeExceptionally( e );
+        }
+
+        return load;
+    }
+
+    private static Optional<Token> await( CompletableFuture<Optional<Token>> load ) {
+        try {
+            return load.join();
+        } catch( CompletionException e ) {
+            if( e.getCause() instanceof RuntimeException ) throw ( RuntimeException ) e.getCause();
+            if( e.getCause() instanceof Error ) throw ( Error ) e.getCause();
+
+            throw e;
+        }
+    }
+
+    /**
+     * @return the answer the caches already have, or {@code null} if {@code tokenService} has to be asked
+     */
+    private Optional<Token> cached( String tokenId ) {
+        final Token cachedToken = tokens.getIfPresent( tokenId );
+        if( cachedToken != null ) {
+            if( live( tokenId, cachedToken ) ) return Optional.of( cachedToken );
+
+            tokens.invalidate( tokenId );
+
+            return Optional.empty();
+        }
+
+        if( !mightBeLive( tokenId ) || unknownTokens.getIfPresent( tokenId ) != null
+            || revoked( tokenId ) )
+            return Optional.empty();
+
+        return null;
+    }
+
+    /**
+     * A signed id may be cached under another shard prefix than the one revoked, so its hits are checked as well.
+     */
+    private boolean live( String tokenId, Token cachedToken ) {
+        return ( cachedToken.expires == null || cachedToken.expires.isAfterNow() )
+            && !( TokenSigner.isSigned( tokenId ) && revoked( tokenId ) );
+    }
+
+    private boolean revoked( String tokenId ) {
+        return revokedTokens.getIfPresent( revocationKey( tokenId ) ) != null;
+    }
+
+    private boolean mightBeLive( String tokenId ) {
+        final Replica replica = liveTokens;
+        if( replica == null || TokenSigner.isSigned( tokenId ) || replica.filter.mightContain( tokenId ) ) return true;
+
+        if( System.currentTimeMillis() - liveTokensRefreshed > liveTokensMaxAge
+            || LiveTokens.reservedAfter( tokenId, replica.epoch, replica.reserved ) ) {
+            unfiltered.increment();
+
+            return true;
+        }
+
+        filtered.increment();
+
+        return false;
+    }
+
+    private Optional<Token> remember( String tokenId, Optional<Token> token ) {
+        if( token.isPresent() ) {
+            tokens.put( tokenId, token.get() );
+            if( revoked( tokenId ) ) {
+                tokens.invalidate( tokenId );
+
+                return Optional.empty();
+            }
+        } else unknownTokens.put( tokenId, Boolean.TRUE );
+
+        return token;
+    }
+
+    /**
+     * Answers cached ids locally and resolves all the misses with a single call to {@code tokenService}.
+     */
+    @Override
+    public Map<String, Token> getTokens( Collection<String> tokenIds ) {
+        final Map<String, Token> result = new HashMap<>();
+        final Set<String> misses = new LinkedHashSet<>();
+
+        for( String tokenId : tokenIds ) {
+            final Token cachedToken = tokens.getIfPresent( tokenId );
+
+            if( cachedToken != null && live( tokenId, cachedToken ) ) result.put( tokenId, cachedToken );
+            else if( unknownTokens.getIfPresent( tokenId ) == null && !revoked( tokenId ) && mightBeLive( tokenId ) )
+                misses.add( tokenId );
+        }
+
+        if( misses.isEmpty() ) return result;
+
+        final long start = System.nanoTime();
+        final Map<String, Token> resolved = tokenService.getTokens( misses );
+        remoteLatency.record( System.nanoTime() - start );
+        for( String tokenId : misses ) {
+            final Token token = resolved.get( tokenId );
+
+            if( token == null ) unknownTokens.put( tokenId, Boolean.TRUE );
+            else {
+                Principals.share( token );
+                tokens.put( tokenId, token );
+                if( revoked( tokenId ) ) tokens.invalidate( tokenId );
+                else result.put( tokenId, token );
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public Revocations revocations( long since ) {
+        return tokenService.revocations( since );
+    }
+
+    @Override
+    public LiveTokens liveTokens( long epoch, long since ) {
+        return tokenService.liveTokens( epoch, since );
+    }
+
+    @Override
+    public synchronized void run() {
+        final Revocations revocations = tokenService.revocations( sequence );
+
+        if( !revocations.complete || revocations.epoch != epoch ) {
+            log.debug( "Revocation log moved from [{}:{}] to [{}:{}], dropping all cached tokens",
+                epoch, sequence, revocations.epoch, revocations.sequence );
+
+            invalidateAll();
+            trustSignaturesAfter( System.currentTimeMillis() + revocationRetention );
+        }
+
+        for( String tokenId : revocations.tokenIds ) revoke( tokenId );
+
+        epoch = revocations.epoch;
+        sequence = revocations.sequence;
+
+        updateLiveTokens();
+    }
+
+    /**
+     * Revocations before {@code millis} may be missing from the tombstones, so signed ids are looked up remotely.
+     */
+    private void trustSignaturesAfter( long millis ) {
+        if( tokenService instanceof SignedTokenService )
+            ( ( SignedTokenService ) tokenService ).trustSignaturesAfter( millis );
+    }
+
+    /**
+     * Copy-on-write, so lookups read the filter, and how far it is complete, without locking.
+     */
+    private void updateLiveTokens() {
+        final LiveTokens changes = tokenService.liveTokens( liveTokensEpoch, liveTokensSequence );
+
+        if( changes == null || changes.counters == null && liveTokens == null ) {
+            liveTokens = null;
+            liveTokensEpoch = 0;
+            liveTokensSequence = 0;
+
+            return;
+        }
+
+        final TokenFilter filter;
+        if( changes.counters != null ) filter = new TokenFilter( changes.counters, changes.hashes );
+        else if( changes.added.length > 0 || changes.removed.length > 0 ) {
+            filter = liveTokens.filter.copy();
+            for( int i = 0; i < changes.added.length; i += 2 ) filter.add( changes.added[i], changes.added[i + 1] );
+            for( int i = 0; i < changes.removed.length; i += 2 )
+                filter.remove( changes.removed[i], changes.removed[i + 1] );
+        } else filter = liveTokens.filter;
+
+        liveTokens = new Replica( filter, changes.epoch, changes.reserved );
+        liveTokensEpoch = changes.epoch;
+        liveTokensSequence = changes.sequence;
+        liveTokensRefreshed = System.currentTimeMillis();
+    }
+
+    public Map<String, Object> stats() {
+        final CacheStats cacheStats = tokens.stats();
+
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "size", tokens.size() );
+        stats.put( "hits", cacheStats.hitCount() );
+        stats.put( "misses", cacheStats.missCount() );
+        stats.put( "evictions", cacheStats.evictionCount() );
+        stats.put( "unknown", unknownTokens.size() );
+        stats.put( "revoked", revokedTokens.size() );
+        stats.put( "remote", remoteLatency.snapshot() );
+        stats.put( "inFlight", loads.size() );
+        stats.put( "coalesced", coalesced.sum() );
+        stats.put( "filtered", filtered.sum() );
+        stats.put( "unfiltered", unfiltered.sum() );
+
+        return stats;
+    }
+
+    public void revoke( String tokenId ) {
+        log.trace( "Revoking cached token [{}]", tokenId );
+
+        revokedTokens.put( revocationKey( tokenId ), Boolean.TRUE );
+        tokens.invalidate( tokenId );
+    }
+
+    /**
+     * Signed ids are revoked without their unsigned shard prefix, so another prefix can't bring them back.
+     */
+    private static String revocationKey( String tokenId ) {
+        return TokenSigner.isSigned( tokenId ) ? TokenSigner.unprefixed( tokenId ) : tokenId;
+    }
+
+    public void invalidate( String tokenId ) {
+        log.trace( "Invalidating cached token [{}]", tokenId );
+
+        tokens.invalidate( tokenId );
+    }
+
+    public void invalidateAll() {
+        tokens.invalidateAll();
+        unknownTokens.invalidateAll();
+    }
+
+    /**
+     * The replicated filter together with the position of the last id reserved in it.
+     */
+    private static final class Replica {
+        final TokenFilter filter;
+        final long epoch;
+        final long reserved;
+
+        Replica( TokenFilter filter, long epoch, long reserved ) {
+            this.filter = filter;
+            this.epoch = epoch;
+            this.reserved = reserved;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Makes a blocking (usually remote) {@link TokenService} asynchronous by running lookups on a pool of its own.
+ * At most {@code maxInFlight} lookups may be queued or running; beyond that they fail at once with a
+ * {@link RejectedExecutionException}, so a slow security server cannot pile up work on API nodes.
+ */
+@Slf4j
+public class ExecutorTokenService implements AsyncTokenService {
+
+    private final TokenService tokenService;
+    private final ExecutorService executor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final LongAdder rejected = new LongAdder();
+
+    public ExecutorTokenService( TokenService tokenService, int threads, int maxInFlight ) {
+        this.tokenService = tokenService;
+        this.executor = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat( "token-lookup-%d" ).setDaemon( true ).build() );
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore( maxInFlight );
+    }
+
+    @Override
+    public CompletableFuture<Optional<Token>> getTokenAsync( String tokenId ) {
+        if( !inFlight.tryAcquire() ) {
+            rejected.increment();
+
+            return rejected( new RejectedExecutionException( "more than " + maxInFlight + " token lookups in flight" ) );
+        }
+
+        try {
+            return CompletableFuture.supplyAsync( () -> tokenService.getToken( tokenId ), executor )
+                .whenComplete( ( token, e ) -> inFlight.release() );
+        } catch( RejectedExecutionException e ) {
+            inFlight.release();
+            rejected.increment();
+
+            return rejected( e );
+        }
+    }
+
+    @Override
+    public Optional<Token> getToken( String tokenId ) {
+        return tokenService.getToken( tokenId );
+    }
+
+    @Override
+    public Map<String, Token> getTokens( Collection<String> tokenIds ) {
+        return tokenService.getTokens( tokenIds );
+    }
+
+    @Override
+    public Revocations revocations( long since ) {
+        return tokenService.revocations( since );
+    }
+
+    @Override
+    public LiveTokens liveTokens( long epoch, long since ) {
+        return tokenService.liveTokens( epoch, since );
+    }
+
+    public Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "inFlight", maxInFlight - inFlight.availablePermits() );
+        stats.put( "rejected", rejected.sum() );
+
+        return stats;
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    private static CompletableFuture<Optional<Token>> rejected( RejectedExecutionException e ) {
+        final CompletableFuture<Optional<Token>> future = new CompletableFuture<>();
+        future.completeExceptionally( e );
+
+        return future;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import lombok.ToString;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+/**
+ * Changes to the security server's {@link TokenFilter} since a given sequence: either the whole filter
+ * ({@code counters} is set) or the hashes (pairs of {@code h1}, {@code h2}) of the ids added and removed since.
+ * <p>
+ * Ids are reserved, i.e. added to the filter, ahead of use. Each {@link #reservedId(long, long) reserved id} carries
+ * the position it was reserved at and a tag of the {@code epoch}, and {@code reserved} is the position of the last
+ * id in the filter. So a replica can tell an id it has never seen from one reserved after its last poll.
+ */
+@ToString( exclude = "counters" )
+public class LiveTokens implements Serializable {
+
+    private static final long serialVersionUID = 3412586297416570113L;
+
+    public long epoch;
+    public long sequence;
+    public int hashes;
+    public byte[] counters;
+    public long[] added;
+    public long[] removed;
+    public long reserved;
+
+    public LiveTokens() {
+    }
+
+    public LiveTokens( long epoch, long sequence, int hashes, byte[] counters, long[] added, long[] removed,
+                       long reserved ) {
+        this.epoch = epoch;
+        this.sequence = sequence;
+        this.hashes = hashes;
+        this.counters = counters;
+        this.added = added;
+        this.removed = removed;
+        this.reserved = reserved;
+    }
+
+    /**
+     * @return a random UUID, except for its first 32 bits, which hold {@code position}, and the next 16, which hold
+     * the low bits of {@code epoch}
+     */
+    public static String reservedId( long epoch, long position ) {
+        final UUID random = UUID.randomUUID();
+
+        return new UUID( ( position & 0xFFFFFFFFL ) << 32 | ( epoch & 0xFFFF ) << 16
+            | random.getMostSignificantBits() & 0xFFFF, random.getLeastSignificantBits() ).toString();
+    }
+
+    /**
+     * @return whether {@code tokenId}, which is not in a filter complete up to {@code reserved}, may still have been
+     * reserved later; true whenever the id is not a {@link #reservedId(long, long) reserved id} of {@code epoch}
+     */
+    public static boolean reservedAfter( String tokenId, long epoch, long reserved ) {
+        final int start = tokenId.length() - 36;
+        if( start < 0 || tokenId.charAt( start + 8 ) != '-' || tokenId.charAt( start + 13 ) != '-' ) return true;
+
+        final long position = hex( tokenId, start, start + 8 );
+        final long tag = hex( tokenId, start + 9, start + 13 );
+        if( position < 0 || tag != ( epoch & 0xFFFF ) ) return true;
+
+        return ( int ) ( position - reserved ) > 0;
+    }
+
+    private static long hex( String s, int from, int to ) {
+        long value = 0;
+        for( int i = from; i < to; i++ ) {
+            final int digit = Character.digit( s.charAt( i ), 16 );
+            if( digit < 0 ) return -1;
+            value = value << 4 | digit;
+        }
+
+        return value;
+    }
+}
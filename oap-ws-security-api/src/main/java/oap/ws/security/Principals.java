@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Shared, credential-free {@link User}s for tokens and sessions. Equal users map to one instance, and
+ * organization ids and names are interned, so a node holding many sessions keeps one small object per user.
+ * <p>
+ * Principals are shared: treat them as immutable and make a copy (see {@code Converters.toUserDTO}) to change
+ * anything. A changed user is a different principal.
+ */
+public final class Principals {
+
+    private static final Interner<User> USERS = Interners.newWeakInterner();
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+
+    private Principals() {
+    }
+
+    public static User of( User user ) {
+        final User principal = new User( user.role, intern( user.organizationId ), user.email );
+        principal.organizationName = intern( user.organizationName );
+
+        return USERS.intern( principal );
+    }
+
+    /**
+     * Replaces the token's user by its principal.
+     */
+    public static Token share( Token token ) {
+        token.user = of( token.user );
+
+        return token;
+    }
+
+    private static String intern( String value ) {
+        return value != null ? STRINGS.intern( value ) : null;
+    }
+}
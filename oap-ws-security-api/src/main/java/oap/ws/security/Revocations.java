@@ -0,0 +1,56 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import lombok.ToString;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Token ids revoked after a given sequence number of the security server's revocation log.
+ * When {@code complete} is false the log no longer covers the requested range (or the server restarted, see
+ * {@code epoch}) and every locally cached token must be dropped.
+ */
+@ToString
+public class Revocations implements Serializable {
+
+    private static final long serialVersionUID = -7771113284665144502L;
+
+    public long epoch;
+    public long sequence;
+    public boolean complete;
+    public List<String> tokenIds;
+
+    public Revocations() {
+    }
+
+    public Revocations( long epoch, long sequence, boolean complete, List<String> tokenIds ) {
+        this.epoch = epoch;
+        this.sequence = sequence;
+        this.complete = complete;
+        this.tokenIds = tokenIds;
+    }
+}
@@ -31,85 +31,183 @@ import oap.http.Session;
 import oap.reflect.Reflection;
 import oap.ws.Interceptor;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
-
-import static java.lang.String.format;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * With a positive {@code lookupTimeout} and an {@link AsyncTokenService}, a request thread waits at most
+ * {@code lookupTimeout} ms for its token; lookups that time out or are rejected by the service answer 503
+ * instead of tying the thread up until the security server responds.
+ */
 @Slf4j
 public class SecurityInterceptor implements Interceptor {
 
     private final TokenService tokenService;
+    private final long lookupTimeout;
+    private final AuditLog auditLog;
+    /**
+     * Required role per web method, resolved once: web services hand in the same method instances on every call.
+     */
+    private final ConcurrentMap<Reflection.Method, Optional<Role>> methodRoles = new ConcurrentHashMap<>();
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder unauthorized = new LongAdder();
+    private final LongAdder forbidden = new LongAdder();
+    private final LongAdder sessionHits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder lookupFailures = new LongAdder();
+    private final LatencyHistogram tokenLookups = new LatencyHistogram();
 
     public SecurityInterceptor( TokenService tokenService ) {
+        this( tokenService, 0 );
+    }
+
+    public SecurityInterceptor( TokenService tokenService, long lookupTimeout ) {
+        this( tokenService, lookupTimeout, AuditLog.disabled() );
+    }
+
+    /**
+     * @param auditLog where 401 and 403 decisions are recorded
+     */
+    public SecurityInterceptor( TokenService tokenService, long lookupTimeout, AuditLog auditLog ) {
         this.tokenService = tokenService;
+        this.lookupTimeout = lookupTimeout;
+        this.auditLog = auditLog;
     }
 
     @Override
     public Optional<HttpResponse> intercept( Request request, Session session, Reflection.Method method ) {
-        final Optional<WsSecurity> annotation = method.findAnnotation( WsSecurity.class );
-        if( annotation.isPresent() ) {
-            if( session == null ) {
-                final HttpResponse httpResponse = HttpResponse.status( 500, "Session doesn't exist; check if service is session aware" );
+        final Optional<Role> methodRole = methodRole( method );
+        if( !methodRole.isPresent() ) return Optional.empty();
 
-                log.error( httpResponse.toString() );
+        if( session == null ) {
+            final HttpResponse httpResponse = HttpResponse.status( 500, "Session doesn't exist; check if service is session aware" );
 
-                return Optional.of( httpResponse );
-            }
+            log.error( "{}", httpResponse );
 
-            final Optional<Object> optionalUser = session.get( "user" );
-            if( optionalUser.isPresent() ) {
-                final User user = ( User ) optionalUser.get();
-                log.trace( "User [{}] found in session", user.email );
+            return Optional.of( httpResponse );
+        }
 
-                final Role methodRole = annotation.get().role();
+        final String ip = request != null ? request.ip : null;
+        User user = ( User ) session.get( "user" ).orElse( null );
+        if( user != null ) {
+            log.trace( "User [{}] found in session", user.email );
+            sessionHits.increment();
+        } else {
+            final Optional<String> header = request.header( "Authorization" );
+            final String sessionToken = header.isPresent()
+                ? header.get()
+                : request.cookie( "Authorization" ).orElse( null );
 
-                if( user.role.precedence > methodRole.precedence ) {
-                    final HttpResponse httpResponse = HttpResponse.status( 403, format( "User [%s] has no access to method [%s]", user.email, method.name() ) );
+            if( sessionToken == null ) {
+                unauthorized.increment();
+                auditLog.log( new AuditEvent( AuditEvent.Type.UNAUTHORIZED, null, method.name(), ip ) );
+                final HttpResponse httpResponse = HttpResponse.status( 401, "Session token is missing in header or cookie" );
 
-                    log.debug( httpResponse.toString() );
+                log.debug( "{}", httpResponse );
 
-                    return Optional.of( httpResponse );
-                }
-            } else {
-                final String sessionToken = request.header( "Authorization" ).orElse( request.cookie( "Authorization" ).orElse( null ) );
+                return Optional.of( httpResponse );
+            }
 
-                if( sessionToken == null ) {
-                    final HttpResponse httpResponse = HttpResponse.status( 401, "Session token is missing in header or cookie" );
+            final long start = System.nanoTime();
+            final Token token;
+            try {
+                token = lookUp( sessionToken ).orElse( null );
+            } catch( TimeoutException e ) {
+                timeouts.increment();
 
-                    log.debug( httpResponse.toString() );
+                return unavailable( "Token lookup timed out" );
+            } catch( ExecutionException e ) {
+                if( e.getCause() instanceof RejectedExecutionException ) {
+                    rejected.increment();
 
-                    return Optional.of( httpResponse );
+                    return unavailable( "Too many token lookups in progress" );
                 }
+                lookupFailures.increment();
+                log.error( "Token lookup failed", e.getCause() );
 
-                final Optional<Token> optionalToken = tokenService.getToken( sessionToken );
+                return unavailable( "Token lookup failed" );
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
 
-                if( !optionalToken.isPresent() ) {
-                    final HttpResponse httpResponse = HttpResponse.status( 401, format( "Token id [%s] expired or was " +
-                        "not created", sessionToken ) );
+                return unavailable( "Token lookup interrupted" );
+            } finally {
+                tokenLookups.record( System.nanoTime() - start );
+            }
 
-                    log.debug( httpResponse.toString() );
+            if( token == null ) {
+                unauthorized.increment();
+                auditLog.log( new AuditEvent( AuditEvent.Type.UNAUTHORIZED, null, method.name(), ip ) );
+                final HttpResponse httpResponse = HttpResponse.status( 401, "Token expired or was not created" );
 
-                    return Optional.of( httpResponse );
-                }
+                log.debug( "{}", httpResponse );
 
-                final Token token = optionalToken.get();
-                final User user = token.user;
+                return Optional.of( httpResponse );
+            }
 
-                session.set( "sessionToken", token.id );
-                session.set( "user", user );
+            user = token.user;
 
-                final Role methodRole = annotation.get().role();
+            session.set( "sessionToken", token.id );
+            session.set( "user", user );
+        }
 
-                if( user.role.precedence > methodRole.precedence ) {
-                    final HttpResponse httpResponse = HttpResponse.status( 403, format( "User [%s] has no access to method [%s]", user.email, method.name() ) );
+        if( user.role.precedence > methodRole.get().precedence ) {
+            forbidden.increment();
+            auditLog.log( new AuditEvent( AuditEvent.Type.FORBIDDEN, user.email, method.name(), ip ) );
+            final HttpResponse httpResponse = HttpResponse.status( 403,
+                "User [" + user.email + "] has no access to method [" + method.name() + "]" );
 
-                    log.debug( httpResponse.toString() );
+            log.debug( "{}", httpResponse );
 
-                    return Optional.of( httpResponse );
-                }
-            }
+            return Optional.of( httpResponse );
         }
 
+        allowed.increment();
+
         return Optional.empty();
     }
+
+    public Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "allowed", allowed.sum() );
+        stats.put( "unauthorized", unauthorized.sum() );
+        stats.put( "forbidden", forbidden.sum() );
+        stats.put( "sessionHits", sessionHits.sum() );
+        stats.put( "timeouts", timeouts.sum() );
+        stats.put( "rejected", rejected.sum() );
+        stats.put( "lookupFailures", lookupFailures.sum() );
+        stats.put( "tokenLookups", tokenLookups.snapshot() );
+
+        return stats;
+    }
+
+    private Optional<Token> lookUp( String tokenId ) throws InterruptedException, ExecutionException, TimeoutException {
+        if( lookupTimeout > 0 && tokenService instanceof AsyncTokenService )
+            return ( ( AsyncTokenService ) tokenService ).getTokenAsync( tokenId ).get( lookupTimeout, TimeUnit.MILLISECONDS );
+
+        return tokenService.getToken( tokenId );
+    }
+
+    private static Optional<HttpResponse> unavailable( String reason ) {
+        final HttpResponse httpResponse = HttpResponse.status( 503, reason );
+
+        log.debug( "{}", httpResponse );
+
+        return Optional.of( httpResponse );
+    }
+
+    private Optional<Role> methodRole( Reflection.Method method ) {
+        final Optional<Role> role = methodRoles.get( method );
+        if( role != null ) return role;
+
+        return methodRoles.computeIfAbsent( method, m -> m.findAnnotation( WsSecurity.class ).map( WsSecurity::role ) );
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Validates signed token ids (see {@link TokenSigner}) locally and hands everything else to {@code tokenService}.
+ * An empty {@code signingKey} disables local validation. {@code shards} is the number of shards issuing tokens in
+ * a sharded deployment, {@code 0} otherwise. Revocation of signed tokens is left to a {@link CachingTokenService}
+ * stacked on top of this one, which {@link #trustSignaturesAfter(long) holds local validation off} until it has seen
+ * every revocation of a signed token that may still be valid; until then signed ids go to {@code tokenService} too.
+ */
+public class SignedTokenService implements AsyncTokenService {
+
+    private final TokenService tokenService;
+    private final TokenSigner tokenSigner;
+    private volatile long trustedAfter;
+
+    public SignedTokenService( TokenService tokenService, String signingKey ) {
+        this( tokenService, signingKey, 0 );
+    }
+
+    public SignedTokenService( TokenService tokenService, String signingKey, int shards ) {
+        this.tokenService = tokenService;
+        this.tokenSigner = signingKey.isEmpty() ? null : new TokenSigner( signingKey, shards );
+    }
+
+    /**
+     * Validates signed ids with {@code tokenService} rather than locally until {@code millis}.
+     */
+    public void trustSignaturesAfter( long millis ) {
+        trustedAfter = millis;
+    }
+
+    private boolean verifiesLocally( String tokenId ) {
+        return tokenSigner != null && TokenSigner.isSigned( tokenId ) && System.currentTimeMillis() >= trustedAfter;
+    }
+
+    @Override
+    public Optional<Token> getToken( String tokenId ) {
+        if( verifiesLocally( tokenId ) ) return tokenSigner.verify( tokenId );
+
+        return tokenService.getToken( tokenId );
+    }
+
+    @Override
+    public CompletableFuture<Optional<Token>> getTokenAsync( String tokenId ) {
+        if( verifiesLocally( tokenId ) ) return CompletableFuture.completedFuture( tokenSigner.verify( tokenId ) );
+
+        return AsyncTokenService.getTokenAsync( tokenService, tokenId );
+    }
+
+    @Override
+    public Map<String, Token> getTokens( Collection<String> tokenIds ) {
+        if( tokenSigner == null ) return tokenService.getTokens( tokenIds );
+
+        final Map<String, Token> tokens = new HashMap<>();
+        final List<String> remote = new ArrayList<>();
+        for( String tokenId : tokenIds ) {
+            if( verifiesLocally( tokenId ) ) tokenSigner.verify( tokenId ).ifPresent( t -> tokens.put( tokenId, t ) );
+            else remote.add( tokenId );
+        }
+
+        if( !remote.isEmpty() ) tokens.putAll( tokenService.getTokens( remote ) );
+
+        return tokens;
+    }
+
+    @Override
+    public Revocations revocations( long since ) {
+        return tokenService.revocations( since );
+    }
+
+    @Override
+    public LiveTokens liveTokens( long epoch, long since ) {
+        return tokenService.liveTokens( epoch, since );
+    }
+}
@@ -37,4 +37,8 @@ public class Token implements Serializable {
     public String id;
     public User user;
     public DateTime created;
+    /**
+     * Set only for signed tokens, which stop being valid at this point regardless of activity.
+     */
+    public DateTime expires;
 }
@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Counting Bloom filter of live token ids: {@link #mightContain(String)} never answers {@code false} for an id that
+ * was added and not removed since, and answers {@code true} for other ids with about the false positive rate the
+ * filter was sized for. Ids are hashed once with murmur3_128 into two halves {@code h1} and {@code h2}; the
+ * {@code i}-th counter is {@code h1 + i * h2}. Counters saturate at 255 and are never decremented after that, so
+ * removals can't cause false negatives.
+ * <p>
+ * Not thread-safe: the owner either synchronizes or replaces the filter copy-on-write.
+ */
+public class TokenFilter {
+
+    private final byte[] counters;
+    private final int hashes;
+
+    public TokenFilter( long expectedTokens, double falsePositiveRate ) {
+        final long size = Math.max( 64, ( long ) ( -expectedTokens * Math.log( falsePositiveRate ) / ( Math.log( 2 ) * Math.log( 2 ) ) ) );
+        if( size > Integer.MAX_VALUE - 8 ) throw new IllegalArgumentException( "filter for " + expectedTokens + " tokens is too large" );
+
+        this.counters = new byte[( int ) size];
+        this.hashes = Math.max( 1, ( int ) Math.round( ( double ) size / Math.max( 1, expectedTokens ) * Math.log( 2 ) ) );
+    }
+
+    public TokenFilter( byte[] counters, int hashes ) {
+        this.counters = counters;
+        this.hashes = hashes;
+    }
+
+    /**
+     * @return {@code h1} and {@code h2} of {@code tokenId}
+     */
+    public static long[] hash( String tokenId ) {
+        final ByteBuffer bytes = ByteBuffer.wrap( Hashing.murmur3_128().hashUnencodedChars( tokenId ).asBytes() )
+            .order( ByteOrder.LITTLE_ENDIAN );
+
+        return new long[] { bytes.getLong( 0 ), bytes.getLong( 8 ) };
+    }
+
+    public boolean mightContain( String tokenId ) {
+        final long[] hash = hash( tokenId );
+
+        for( int i = 0; i < hashes; i++ )
+            if( counters[index( hash[0], hash[1], i )] == 0 ) return false;
+
+        return true;
+    }
+
+    public void add( long h1, long h2 ) {
+        for( int i = 0; i < hashes; i++ ) {
+            final int index = index( h1, h2, i );
+            if( counters[index] != -1 ) counters[index]++;
+        }
+    }
+
+    public void remove( long h1, long h2 ) {
+        for( int i = 0; i < hashes; i++ ) {
+            final int index = index( h1, h2, i );
+            if( counters[index] != -1 && counters[index] != 0 ) counters[index]--;
+        }
+    }
+
+    public TokenFilter copy() {
+        return new TokenFilter( counters.clone(), hashes );
+    }
+
+    public byte[] counters() {
+        return counters;
+    }
+
+    public int hashes() {
+        return hashes;
+    }
+
+    private int index( long h1, long h2, int i ) {
+        return ( int ) ( ( ( h1 + i * h2 ) & Long.MAX_VALUE ) % counters.length );
+    }
+}
@@ -24,8 +24,38 @@
 
 package oap.ws.security;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 public interface TokenService {
     Optional<Token> getToken( String tokenId );
+
+    /**
+     * @return live tokens among {@code tokenIds}, by id; unknown or expired ids are absent
+     */
+    default Map<String, Token> getTokens( Collection<String> tokenIds ) {
+        final Map<String, Token> tokens = new HashMap<>();
+        for( String tokenId : tokenIds ) getToken( tokenId ).ifPresent( token -> tokens.put( tokenId, token ) );
+
+        return tokens;
+    }
+
+    /**
+     * @return revocations since {@code since}; services that keep no {@code RevocationLog} report them incomplete,
+     * so caches in front of them are dropped on every poll
+     */
+    default Revocations revocations( long since ) {
+        return new Revocations( 0, since, false, Collections.emptyList() );
+    }
+
+    /**
+     * @return changes to the filter of live token ids since {@code since} in {@code epoch} (see {@link LiveTokens}),
+     * or {@code null} if there is no such filter
+     */
+    default LiveTokens liveTokens( long epoch, long since ) {
+        return null;
+    }
 }
@@ -0,0 +1,200 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import lombok.extern.slf4j.Slf4j;
+import org.joda.time.DateTime;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Self-contained token ids: {@code base64url( payload ) + "." + base64url( HMAC-SHA256( payload ) )}, where the
+ * payload carries the user's email, role, organization and the token's creation and expiration time. Any node
+ * sharing the key can validate such an id without asking the security server.
+ * <p>
+ * In a sharded deployment ids start with the number of the issuing shard and {@code ':'}. The prefix is not signed,
+ * so anything keyed by signed ids, like revocations, must use {@link #unprefixed(String)}.
+ */
+@Slf4j
+public class TokenSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final byte VERSION = 1;
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> mac;
+    private final int shards;
+
+    public TokenSigner( String key ) {
+        this( key, 0 );
+    }
+
+    /**
+     * @param shards number of shards issuing tokens, {@code 0} if ids carry no shard prefix
+     */
+    public TokenSigner( String key, int shards ) {
+        this.shards = shards;
+        this.key = new SecretKeySpec( key.getBytes( StandardCharsets.UTF_8 ), ALGORITHM );
+        this.mac = ThreadLocal.withInitial( () -> {
+            try {
+                final Mac mac = Mac.getInstance( ALGORITHM );
+                mac.init( this.key );
+                return mac;
+            } catch( GeneralSecurityException e ) {
+                throw new IllegalStateException( e );
+            }
+        } );
+    }
+
+    public static boolean isSigned( String tokenId ) {
+        return tokenId.indexOf( '.' ) > 0;
+    }
+
+    /**
+     * @return the signed part of {@code tokenId}, without any shard prefix
+     */
+    public static String unprefixed( String tokenId ) {
+        return tokenId.substring( tokenId.indexOf( ':' ) + 1 );
+    }
+
+    public String sign( User user, DateTime created, DateTime expires ) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 128 );
+        try( DataOutputStream out = new DataOutputStream( bytes ) ) {
+            out.writeByte( VERSION );
+            out.writeUTF( user.email );
+            out.writeByte( user.role.ordinal() );
+            writeNullable( out, user.organizationId );
+            writeNullable( out, user.organizationName );
+            out.writeLong( created.getMillis() );
+            out.writeLong( expires.getMillis() );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+
+        final byte[] payload = bytes.toByteArray();
+        final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+
+        return encoder.encodeToString( payload ) + "." + encoder.encodeToString( mac.get().doFinal( payload ) );
+    }
+
+    /**
+     * @return the token encoded in {@code tokenId} if its signature matches and it hasn't expired yet. The shard
+     * prefix, which is not part of the signature, must be the canonical number of one of the {@code shards}, or
+     * absent if there are none.
+     */
+    public Optional<Token> verify( String tokenId ) {
+        final int start = prefixLength( tokenId );
+        if( start < 0 ) return Optional.empty();
+        final int separator = tokenId.indexOf( '.', start );
+        if( separator <= start ) return Optional.empty();
+
+        final byte[] payload = decode( tokenId.substring( start, separator ) );
+        final byte[] signature = decode( tokenId.substring( separator + 1 ) );
+        if( payload == null || signature == null ) return Optional.empty();
+
+        if( !MessageDigest.isEqual( mac.get().doFinal( payload ), signature ) ) {
+            log.trace( "Token [{}] has invalid signature", tokenId );
+
+            return Optional.empty();
+        }
+
+        try( DataInputStream in = new DataInputStream( new ByteArrayInputStream( payload ) ) ) {
+            if( in.readByte() != VERSION ) return Optional.empty();
+
+            final User user = new User();
+            user.email = in.readUTF();
+            user.role = Role.values()[in.readByte()];
+            user.organizationId = readNullable( in );
+            user.organizationName = readNullable( in );
+
+            final Token token = new Token();
+            token.id = tokenId;
+            token.user = Principals.of( user );
+            token.created = new DateTime( in.readLong() );
+            token.expires = new DateTime( in.readLong() );
+
+            return token.expires.isAfterNow() ? Optional.of( token ) : Optional.empty();
+        } catch( IOException e ) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return length of the shard prefix including {@code ':'}, or {@code -1} if it is not a valid shard
+     */
+    private int prefixLength( String tokenId ) {
+        final int colon = tokenId.indexOf( ':' );
+        if( shards <= 0 ) return colon < 0 ? 0 : -1;
+        if( colon <= 0 || colon > 4 || colon > 1 && tokenId.charAt( 0 ) == '0' ) return -1;
+
+        int shard = 0;
+        for( int i = 0; i < colon; i++ ) {
+            final char c = tokenId.charAt( i );
+            if( c < '0' || c > '9' ) return -1;
+            shard = shard * 10 + c - '0';
+        }
+
+        return shard < shards ? colon + 1 : -1;
+    }
+
+    /**
+     * The decoder ignores padding and the unused bits of the last character, so several strings decode to the
+     * same bytes. Only the one {@link #sign} produces is accepted: revocations are keyed by the id string, and any
+     * other spelling of a revoked id would verify without matching them.
+     *
+     * @return the decoded bytes, or {@code null} unless {@code encoded} is canonical unpadded base64url
+     */
+    private static byte[] decode( String encoded ) {
+        final byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode( encoded );
+        } catch( IllegalArgumentException e ) {
+            return null;
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString( bytes ).equals( encoded ) ? bytes : null;
+    }
+
+    private static void writeNullable( DataOutputStream out, String value ) throws IOException {
+        out.writeBoolean( value != null );
+        if( value != null ) out.writeUTF( value );
+    }
+
+    private static String readNullable( DataInputStream in ) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
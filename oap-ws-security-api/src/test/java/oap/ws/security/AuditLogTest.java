@@ -0,0 +1,78 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class AuditLogTest {
+
+    @Test
+    public void testShouldWriteEventsInBatchesAndRotate() throws Exception {
+        final Path path = Files.createTempDirectory( "audit" );
+        final AuditLog auditLog = new AuditLog( path, 1024, 16, 1024, 1000 );
+        auditLog.start();
+
+        for( int i = 0; i < 100; i++ )
+            auditLog.log( new AuditEvent( AuditEvent.Type.LOGIN, "user" + i + "@example.com", null, "127.0.0.1" ) );
+        auditLog.stop();
+
+        final List<String> lines = Files.list( path )
+            .flatMap( file -> {
+                try {
+                    return Files.readAllLines( file ).stream();
+                } catch( Exception e ) {
+                    throw new IllegalStateException( e );
+                }
+            } )
+            .collect( Collectors.toList() );
+
+        assertEquals( lines.size(), 100 );
+        assertTrue( lines.get( 0 ).contains( "LOGIN" ) );
+        assertEquals( auditLog.stats().get( "written" ), 100L );
+        assertTrue( ( Long ) auditLog.stats().get( "files" ) > 1 );
+    }
+
+    @Test
+    public void testShouldShedFloodsBeforeDroppingOtherEvents() {
+        final AuditLog auditLog = new AuditLog( null, 8, 16, 1024, 0 );
+
+        for( int i = 0; i < 10; i++ )
+            auditLog.log( new AuditEvent( AuditEvent.Type.UNAUTHORIZED, null, "method", "127.0.0.1" ) );
+        for( int i = 0; i < 4; i++ )
+            auditLog.log( new AuditEvent( AuditEvent.Type.LOGOUT, "test@example.com", "test@example.com", null ) );
+
+        assertEquals( auditLog.stats().get( "queued" ), 8 );
+        assertEquals( auditLog.stats().get( "shed" ), 4L );
+        assertEquals( auditLog.stats().get( "dropped" ), 2L );
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.fail;
+
+public class CachingTokenServiceTest {
+
+    private final TokenService mockTokenService = mock( TokenService.class );
+
+    @BeforeMethod
+    public void setUp() {
+        reset( mockTokenService );
+    }
+
+    @Test
+    public void testShouldAskDelegateOncePerToken() {
+        final Token token = new Token();
+        token.id = "token";
+        token.user = new User( Role.USER, "987654321", "test@example.com" );
+        token.created = DateTime.now();
+
+        when( mockTokenService.getToken( "token" ) ).thenReturn( Optional.of( token ) );
+
+        final CachingTokenService tokenService = new CachingTokenService( mockTokenService, 100, 60000, 60000 );
+
+        assertEquals( tokenService.getToken( "token" ).get().id, "token" );
+        assertEquals( tokenService.getToken( "token" ).get().id, "token" );
+
+        verify( mockTokenService, times( 1 ) ).getToken( "token" );
+
+        tokenService.invalidate( "token" );
+        tokenService.getToken( "token" );
+
+        verify( mockTokenService, times( 2 ) ).getToken( "token" );
+    }
+
+    @Test
+    public void testShouldCoalesceConcurrentMisses() throws Exception {
+        final Token token = new Token();
+        token.id = "token";
+        token.user = new User( Role.USER, "987654321", "test@example.com" );
+        token.created = DateTime.now();
+
+        final CountDownLatch release = new CountDownLatch( 1 );
+        when( mockTokenService.getToken( "token" ) ).thenAnswer( invocation -> {
+            release.await();
+            return Optional.of( token );
+        } );
+
+        final CachingTokenService tokenService = new CachingTokenService( mockTokenService, 100, 60000, 60000 );
+        final ExecutorService executor = Executors.newFixedThreadPool( 20 );
+        try {
+            final List<Future<Optional<Token>>> lookups = new ArrayList<>();
+            for( int i = 0; i < 20; i++ ) lookups.add( executor.submit( () -> tokenService.getToken( "token" ) ) );
+
+            while( ( Long ) tokenService.stats().get( "coalesced" ) < 19 ) Thread.sleep( 1 );
+            release.countDown();
+
+            for( Future<Optional<Token>> lookup : lookups ) assertEquals( lookup.get().get().id, "token" );
+        } finally {
+            executor.shutdownNow();
+        }
+
+        verify( mockTokenService, times( 1 ) ).getToken( "token" );
+        assertEquals( tokenService.stats().get( "inFlight" ), 0 );
+    }
+
+    @Test
+    public void testShouldReleaseMissOnError() {
+        final Token token = new Token();
+        token.id = "token";
+        token.user = new User( Role.USER, "987654321", "test@example.com" );
+        token.created = DateTime.now();
+
+        when( mockTokenService.getToken( "token" ) )
+            .thenThrow( new Error( "lookup failed" ) )
+            .thenReturn( Optional.of( token ) );
+
+        final CachingTokenService tokenService = new CachingTokenService( mockTokenService, 100, 60000, 60000 );
+
+        try {
+            tokenService.getToken( "token" );
+            fail( "the error should reach the caller" );
+        } catch( Error e ) {
+            assertEquals( e.getMessage(), "lookup failed" );
+        }
+        assertEquals( tokenService.stats().get( "inFlight" ), 0 );
+
+        assertEquals( tokenService.getToken( "token" ).get().id, "token" );
+        verify( mockTokenService, times( 2 ) ).getToken( "token" );
+    }
+
+    @Test
+    public void testShouldRejectIdsMissingFromLiveTokens() {
+        final String live = LiveTokens.reservedId( 1, 1 );
+        final String missing = LiveTokens.reservedId( 1, 2 );
+        when( mockTokenService.revocations( 0 ) ).thenReturn( new Revocations( 1, 1, true, Collections.emptyList() ) );
+        when( mockTokenService.liveTokens( 0, 0 ) ).thenReturn( liveTokens( 1, 100, live ) );
+        when( mockTokenService.getToken( live ) ).thenReturn( Optional.of( token( live ) ) );
+
+        final CachingTokenService tokenService = new CachingTokenService( mockTokenService, 100, 60000, 60000, 60000,
+            60000 );
+        tokenService.run();
+
+        assertFalse( tokenService.getToken( missing ).isPresent() );
+        assertEquals( tokenService.getToken( live ).get().id, live );
+
+        verify( mockTokenService, never() ).getToken( missing );
+        assertEquals( tokenService.stats().get( "filtered" ), 1L );
+    }
+
+    @Test
+    public void testShouldAskServerWhenLiveTokensAreStale() throws InterruptedException {
+        final String issued = LiveTokens.reservedId( 1, 2 );
+        when( mockTokenService.revocations( 0 ) ).thenReturn( new Revocations( 1, 1, true, Collections.emptyList() ) );
+        when( mockTokenService.liveTokens( 0, 0 ) ).thenReturn( liveTokens( 1, 100, LiveTokens.reservedId( 1, 1 ) ) );
+        when( mockTokenService.getToken( issued ) ).thenReturn( Optional.of( token( issued ) ) );
+
+        final CachingTokenService tokenService = new CachingTokenService( mockTokenService, 100, 60000, 60000, 60000,
+            50 );
+        tokenService.run();
+
+        Thread.sleep( 100 );
+
+        assertEquals( tokenService.getToken( issued ).get().id, issued );
+        assertEquals( tokenService.stats().get( "unfiltered" ), 1L );
+    }
+
+    @Test
+    public void testShouldAskServerForIdsReservedAfterLastPoll() {
+        when( mockTokenService.revocations( 0 ) ).thenReturn( new Revocations( 1, 1, true, Collections.emptyList() ) );
+        when( mockTokenService.liveTokens( 0, 0 ) ).thenReturn( liveTokens( 1, 100, LiveTokens.reservedId( 1, 1 ) ) );
+
+        final CachingTokenService tokenService = new CachingTokenService( mockTokenService, 10000, 60000, 60000, 60000,
+            60000 );
+        tokenService.run();
+
+        for( long position = 101; position <= 5100; position++ ) {
+            final String burst = LiveTokens.reservedId( 1, position );
+            when( mockTokenService.getToken( burst ) ).thenReturn( Optional.of( token( burst ) ) );
+
+            assertEquals( tokenService.getToken( burst ).get().id, burst );
+        }
+        final String restarted = LiveTokens.reservedId( 2, 50 );
+        when( mockTokenService.getToken( restarted ) ).thenReturn( Optional.of( token( restarted ) ) );
+        assertEquals( tokenService.getToken( restarted ).get().id, restarted );
+
+        assertEquals( tokenService.stats().get( "unfiltered" ), 5001L );
+        assertEquals( tokenService.stats().get( "filtered" ), 0L );
+    }
+
+    private static LiveTokens liveTokens( long epoch, long reserved, String tokenId ) {
+        final TokenFilter filter = new TokenFilter( 100, 0.01 );
+        final long[] hash = TokenFilter.hash( tokenId );
+        filter.add( hash[0], hash[1] );
+
+        return new LiveTokens( epoch, 1, filter.hashes(), filter.counters(), null, null, reserved );
+    }
+
+    @Test
+    public void testShouldWorkWithServicesImplementingOnlyGetToken() {
+        final TokenService singleLookups = tokenId -> tokenId.equals( "live" ) ? Optional.of( token( "live" ) )
+            : Optional.empty();
+
+        final CachingTokenService tokenService = new CachingTokenService( singleLookups, 100, 60000, 60000 );
+        tokenService.run();
+
+        final Map<String, Token> tokens = tokenService.getTokens( Arrays.asList( "live", "missing" ) );
+        assertEquals( tokens.keySet(), Collections.singleton( "live" ) );
+        assertFalse( tokenService.getToken( "missing" ).isPresent() );
+    }
+
+    private static Token token( String tokenId ) {
+        final Token token = new Token();
+        token.id = tokenId;
+        token.user = new User( Role.USER, "987654321", "test@example.com" );
+        token.created = DateTime.now();
+
+        return token;
+    }
+
+    @Test
+    public void testShouldRememberUnknownTokens() throws InterruptedException {
+        when( mockTokenService.getToken( "unknown" ) ).thenReturn( Optional.empty() );
+
+        final CachingTokenService tokenService = new CachingTokenService( mockTokenService, 100, 60000, 50 );
+
+        assertFalse( tokenService.getToken( "unknown" ).isPresent() );
+        assertFalse( tokenService.getToken( "unknown" ).isPresent() );
+
+        verify( mockTokenService, times( 1 ) ).getToken( "unknown" );
+
+        Thread.sleep( 100 );
+
+        assertFalse( tokenService.getToken( "unknown" ).isPresent() );
+
+        verify( mockTokenService, times( 2 ) ).getToken( "unknown" );
+    }
+
+    @Test
+    public void testShouldDropRevokedTokens() {
+        final Token token = new Token();
+        token.id = "token";
+        token.user = new User( Role.USER, "987654321", "test@example.com" );
+        token.created = DateTime.now();
+
+        when( mockTokenService.getToken( "token" ) ).thenReturn( Optional.of( token ) );
+        when( mockTokenService.revocations( 0 ) )
+            .thenReturn( new Revocations( 1, 1, true, Collections.singletonList( "token" ) ) );
+
+        final CachingTokenService tokenService = new CachingTokenService( mockTokenService, 100, 60000, 60000 );
+
+        assertEquals( tokenService.getToken( "token" ).get().id, "token" );
+
+        tokenService.run();
+
+        assertFalse( tokenService.getToken( "token" ).isPresent() );
+        verify( mockTokenService, times( 1 ) ).getToken( "token" );
+    }
+
+    @Test
+    public void testShouldResolveMissesInOneBatch() {
+        final Token cached = new Token();
+        cached.id = "cached";
+        cached.user = new User( Role.USER, "987654321", "cached@example.com" );
+
+        final Token missed = new Token();
+        missed.id = "missed";
+        missed.user = new User( Role.USER, "987654321", "missed@example.com" );
+
+        when( mockTokenService.getToken( "cached" ) ).thenReturn( Optional.of( cached ) );
+        when( mockTokenService.getTokens( anyCollectionOf( String.class ) ) )
+            .thenReturn( Collections.singletonMap( "missed", missed ) );
+
+        final CachingTokenService tokenService = new CachingTokenService( mockTokenService, 100, 60000, 60000 );
+        tokenService.getToken( "cached" );
+
+        final Map<String, Token> tokens = tokenService.getTokens( Arrays.asList( "cached", "missed", "unknown" ) );
+
+        assertEquals( tokens.keySet(), new HashSet<>( Arrays.asList( "cached", "missed" ) ) );
+        verify( mockTokenService ).getTokens( new LinkedHashSet<>( Arrays.asList( "missed", "unknown" ) ) );
+
+        assertEquals( tokenService.getTokens( Arrays.asList( "missed", "unknown" ) ).keySet(),
+            Collections.singleton( "missed" ) );
+        verify( mockTokenService, times( 1 ) ).getTokens( anyCollectionOf( String.class ) );
+    }
+
+    @Test
+    public void testShouldLookUpSignedTokensRemotelyUntilRevocationsCoverRetention() {
+        final TokenSigner tokenSigner = new TokenSigner( "secret" );
+        final DateTime created = DateTime.now();
+        final String tokenId = tokenSigner.sign( new User( Role.USER, "987654321", "test@example.com" ),
+            created, created.plusMinutes( 5 ) );
+
+        when( mockTokenService.getToken( tokenId ) ).thenReturn( Optional.empty() );
+        when( mockTokenService.revocations( 0 ) )
+            .thenReturn( new Revocations( 1, 20000, false, Collections.emptyList() ) );
+
+        final CachingTokenService tokenService = new CachingTokenService(
+            new SignedTokenService( mockTokenService, "secret" ), 100, 60000, 0, 60000 );
+
+        assertFalse( tokenService.getToken( tokenId ).isPresent() );
+
+        tokenService.run();
+
+        assertFalse( tokenService.getToken( tokenId ).isPresent() );
+        verify( mockTokenService, times( 2 ) ).getToken( tokenId );
+    }
+
+    @Test
+    public void testShouldNotReviveRevokedSignedTokenThroughAnotherEncoding() {
+        final TokenSigner tokenSigner = new TokenSigner( "secret" );
+        final DateTime created = DateTime.now();
+        final String tokenId = tokenSigner.sign( new User( Role.USER, "987654321", "test@example.com" ),
+            created, created.plusMinutes( 5 ) );
+
+        when( mockTokenService.revocations( 0 ) )
+            .thenReturn( new Revocations( 1, 1, true, Collections.singletonList( tokenId ) ) );
+
+        final SignedTokenService signedTokenService = new SignedTokenService( mockTokenService, "secret" );
+        final CachingTokenService tokenService = new CachingTokenService( signedTokenService, 100, 60000, 60000 );
+        signedTokenService.trustSignaturesAfter( 0 );
+
+        assertEquals( tokenService.getToken( tokenId ).get().id, tokenId );
+
+        tokenService.run();
+        signedTokenService.trustSignaturesAfter( 0 );
+
+        assertFalse( tokenService.getToken( tokenId ).isPresent() );
+        assertFalse( tokenService.getToken( tokenId + "=" ).isPresent() );
+        assertFalse( tokenService.getToken( TokenSignerTest.flipUnusedBit( tokenId ) ).isPresent() );
+    }
+
+    @Test
+    public void testShouldNotReviveRevokedSignedTokenThroughAnotherShardPrefix() {
+        final DateTime created = DateTime.now();
+        final String signed = new TokenSigner( "secret" ).sign( new User( Role.USER, "987654321", "test@example.com" ),
+            created, created.plusMinutes( 5 ) );
+
+        when( mockTokenService.revocations( 0 ) )
+            .thenReturn( new Revocations( 1, 1, true, Collections.singletonList( "1:" + signed ) ) );
+
+        final SignedTokenService signedTokenService = new SignedTokenService( mockTokenService, "secret", 4 );
+        final CachingTokenService tokenService = new CachingTokenService( signedTokenService, 100, 60000, 60000 );
+        signedTokenService.trustSignaturesAfter( 0 );
+
+        assertEquals( tokenService.getToken( "2:" + signed ).get().id, "2:" + signed );
+
+        tokenService.run();
+        signedTokenService.trustSignaturesAfter( 0 );
+
+        assertFalse( tokenService.getToken( "1:" + signed ).isPresent() );
+        assertFalse( tokenService.getToken( "2:" + signed ).isPresent() );
+        assertFalse( tokenService.getToken( "3:" + signed ).isPresent() );
+        assertFalse( tokenService.getToken( "x:1:" + signed ).isPresent() );
+    }
+}
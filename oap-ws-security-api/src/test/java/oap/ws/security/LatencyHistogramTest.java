@@ -0,0 +1,59 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import org.testng.annotations.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testShouldEstimatePercentilesWithinBucketPrecision() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for( int i = 1; i <= 1000; i++ ) histogram.record( TimeUnit.MICROSECONDS.toNanos( i ) );
+
+        final Map<String, Object> snapshot = histogram.snapshot();
+
+        assertEquals( snapshot.get( "count" ), 1000L );
+        assertEquals( ( double ) snapshot.get( "max" ), 1000d );
+        assertTrue( Math.abs( ( double ) snapshot.get( "p50" ) - 500 ) <= 500 * 0.125 );
+        assertTrue( Math.abs( ( double ) snapshot.get( "p99" ) - 990 ) <= 990 * 0.125 );
+    }
+
+    @Test
+    public void testShouldMapEveryValueIntoItsBucket() {
+        for( long value : new long[] { 0, 1, 7, 8, 15, 16, 1000, 123456789, Long.MAX_VALUE } ) {
+            final long estimate = LatencyHistogram.value( LatencyHistogram.index( value ) );
+
+            assertTrue( Math.abs( estimate - ( double ) value ) <= value * 0.125, value + " -> " + estimate );
+        }
+    }
+}
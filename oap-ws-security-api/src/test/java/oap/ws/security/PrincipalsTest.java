@@ -0,0 +1,68 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+public class PrincipalsTest {
+
+    @Test
+    public void testShouldShareOneCredentialFreeInstancePerUser() {
+        final User user = new User( Role.USER, new String( "987654321" ), "test@example.com" );
+        user.organizationName = "test";
+        user.password = "hash";
+        final User copy = new User( Role.USER, new String( "987654321" ), "test@example.com" );
+        copy.organizationName = "test";
+
+        final User principal = Principals.of( user );
+
+        assertSame( Principals.of( copy ), principal );
+        assertNull( principal.password );
+        assertEquals( principal.email, "test@example.com" );
+        assertEquals( user.password, "hash" );
+    }
+
+    @Test
+    public void testShouldInternOrganizationsAcrossUsers() {
+        final User first = Principals.of( new User( Role.USER, new String( "987654321" ), "first@example.com" ) );
+        final User second = Principals.of( new User( Role.USER, new String( "987654321" ), "second@example.com" ) );
+
+        assertNotSame( first, second );
+        assertSame( first.organizationId, second.organizationId );
+    }
+
+    @Test
+    public void testShouldTellChangedUsersApart() {
+        final User user = new User( Role.USER, "987654321", "test@example.com" );
+        final User admin = new User( Role.ADMIN, "987654321", "test@example.com" );
+
+        assertNotSame( Principals.of( admin ), Principals.of( user ) );
+    }
+}
@@ -40,9 +40,11 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 
@@ -117,11 +119,70 @@ public class SecurityInterceptorTest {
         assertNotNull( session.get( "user" ) );
     }
 
+    @Test
+    public void testShouldRejectUserWithInsufficientRole() {
+        final Reflection.Method methodWithAnnotation = REFLECTION.method(
+            method -> method.name().equals( "methodWithAdminAnnotation" ) ).get();
+
+        final User user = new User();
+        user.role = Role.USER;
+        user.email = "test@example.com";
+
+        final Session session = new Session();
+        session.set( "user", user );
+
+        final Optional<HttpResponse> first = securityInterceptor.intercept( null, session, methodWithAnnotation );
+        final Optional<HttpResponse> second = securityInterceptor.intercept( null, session, methodWithAnnotation );
+
+        assertEquals( first.get().code, 403 );
+        assertEquals( second.get().code, 403 );
+    }
+
+    @Test
+    public void testShouldAnswerUnavailableWhenAsyncLookupTimesOutOrIsRejected() throws Exception {
+        final Reflection.Method methodWithAnnotation = REFLECTION.method(
+            method -> method.name().equals( "methodWithAnnotation" ) ).get();
+
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final TokenService slowTokenService = mock( TokenService.class );
+        when( slowTokenService.getToken( "slow" ) ).thenAnswer( invocation -> {
+            release.await();
+            return Optional.empty();
+        } );
+
+        final ExecutorTokenService asyncTokenService = new ExecutorTokenService( slowTokenService, 1, 1 );
+        final SecurityInterceptor interceptor = new SecurityInterceptor( asyncTokenService, 50 );
+        try {
+            final Optional<HttpResponse> timedOut = interceptor.intercept( request( "slow" ), new Session(), methodWithAnnotation );
+            final Optional<HttpResponse> rejected = interceptor.intercept( request( "slow" ), new Session(), methodWithAnnotation );
+
+            assertEquals( timedOut.get().code, 503 );
+            assertEquals( rejected.get().code, 503 );
+            assertEquals( interceptor.stats().get( "timeouts" ), 1L );
+            assertEquals( interceptor.stats().get( "rejected" ), 1L );
+            assertEquals( asyncTokenService.stats().get( "rejected" ), 1L );
+        } finally {
+            release.countDown();
+            asyncTokenService.stop();
+        }
+    }
+
+    private static Request request( String tokenId ) throws UnknownHostException {
+        final HttpRequest httpRequest = new HttpGet();
+        httpRequest.setHeader( "Authorization", tokenId );
+        httpRequest.setHeader( "Host", "localhost" );
+
+        return new Request( httpRequest, new Context( "/", InetAddress.getLocalHost(), Protocol.HTTP.name() ) );
+    }
+
     private static class TestAPI {
 
         @WsSecurity( role = Role.USER )
         public void methodWithAnnotation() {}
 
+        @WsSecurity( role = Role.ADMIN )
+        public void methodWithAdminAnnotation() {}
+
         public void methodWithoutAnnotation() {}
     }
 
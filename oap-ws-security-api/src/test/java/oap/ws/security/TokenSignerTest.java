@@ -0,0 +1,118 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security;
+
+import org.joda.time.DateTime;
+import org.testng.annotations.Test;
+
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TokenSignerTest {
+
+    private final TokenSigner tokenSigner = new TokenSigner( "secret" );
+
+    @Test
+    public void testShouldVerifySignedToken() {
+        final User user = new User( Role.ORGANIZATION_ADMIN, "987654321", "test@example.com" );
+        final DateTime created = DateTime.now();
+
+        final String tokenId = tokenSigner.sign( user, created, created.plusMinutes( 5 ) );
+
+        assertTrue( TokenSigner.isSigned( tokenId ) );
+
+        final Token token = tokenSigner.verify( tokenId ).get();
+
+        assertEquals( token.id, tokenId );
+        assertEquals( token.user, user );
+        assertEquals( token.created.getMillis(), created.getMillis() );
+        assertNull( token.user.password );
+    }
+
+    @Test
+    public void testShouldVerifyShardPrefixedToken() {
+        final User user = new User( Role.USER, "987654321", "test@example.com" );
+        final DateTime created = DateTime.now();
+
+        final String signed = tokenSigner.sign( user, created, created.plusMinutes( 5 ) );
+        final String tokenId = "3:" + signed;
+        final TokenSigner shardedSigner = new TokenSigner( "secret", 4 );
+
+        assertTrue( TokenSigner.isSigned( tokenId ) );
+        assertEquals( shardedSigner.verify( tokenId ).get().id, tokenId );
+        assertEquals( TokenSigner.unprefixed( tokenId ), signed );
+
+        assertFalse( tokenSigner.verify( tokenId ).isPresent() );
+        assertFalse( shardedSigner.verify( signed ).isPresent() );
+        assertFalse( shardedSigner.verify( "x:" + signed ).isPresent() );
+        assertFalse( shardedSigner.verify( "03:" + signed ).isPresent() );
+        assertFalse( shardedSigner.verify( "4:" + signed ).isPresent() );
+        assertFalse( shardedSigner.verify( ":" + signed ).isPresent() );
+    }
+
+    @Test
+    public void testShouldRejectForgedOrExpiredToken() {
+        final User user = new User( Role.USER, null, "test@example.com" );
+        final DateTime created = DateTime.now();
+
+        final String tokenId = tokenSigner.sign( user, created, created.plusMinutes( 5 ) );
+        final String admin = new TokenSigner( "other" )
+            .sign( new User( Role.ADMIN, null, "test@example.com" ), created, created.plusMinutes( 5 ) );
+
+        assertFalse( tokenSigner.verify( admin ).isPresent() );
+        final String swapped = tokenId.substring( 0, tokenId.indexOf( '.' ) ) + admin.substring( admin.indexOf( '.' ) );
+
+        assertFalse( tokenSigner.verify( swapped ).isPresent() );
+        assertFalse( tokenSigner.verify( tokenSigner.sign( user, created, created.minusMinutes( 1 ) ) ).isPresent() );
+        assertFalse( tokenSigner.verify( "garbage.!!!" ).isPresent() );
+        assertFalse( TokenSigner.isSigned( UUID.randomUUID().toString() ) );
+    }
+
+    @Test
+    public void testShouldRejectNonCanonicalEncoding() {
+        final User user = new User( Role.USER, null, "test@example.com" );
+        final DateTime created = DateTime.now();
+
+        final String tokenId = tokenSigner.sign( user, created, created.plusMinutes( 5 ) );
+
+        assertTrue( tokenSigner.verify( tokenId ).isPresent() );
+        assertFalse( tokenSigner.verify( tokenId + "=" ).isPresent() );
+        assertFalse( tokenSigner.verify( flipUnusedBit( tokenId ) ).isPresent() );
+    }
+
+    /**
+     * The 32 byte signature takes 43 base64 characters, the last of which carries two unused bits.
+     */
+    static String flipUnusedBit( String tokenId ) {
+        final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        final char last = tokenId.charAt( tokenId.length() - 1 );
+
+        return tokenId.substring( 0, tokenId.length() - 1 ) + alphabet.charAt( alphabet.indexOf( last ) ^ 1 );
+    }
+}
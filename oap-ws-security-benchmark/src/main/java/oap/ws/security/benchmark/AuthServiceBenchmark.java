@@ -0,0 +1,158 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.benchmark;
+
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import oap.ws.security.User;
+import oap.ws.security.server.AuthService;
+import oap.ws.security.server.HeapTokenStore;
+import oap.ws.security.server.Pbkdf2PasswordHasher;
+import oap.ws.security.server.UserStorage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of {@link AuthService#getToken(String)} with 1, 2, 4 and 8 reader threads, and of 7 readers running
+ * next to a thread that keeps logging users in. Lookups must not share a lock, so per-thread throughput should
+ * stay roughly flat as readers are added, up to the number of cores.
+ * <p>
+ * Built with the {@code benchmark} profile and run with {@code java -jar target/benchmarks.jar AuthServiceBenchmark}.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class AuthServiceBenchmark {
+
+    private static final int USERS = 1024;
+    private static final String PASSWORD = "12345";
+
+    private Path path;
+    private UserStorage userStorage;
+    private AuthService authService;
+    private String[] emails;
+    private String[] tokenIds;
+
+    @Setup( Level.Trial )
+    public void setUp() throws IOException {
+        path = Files.createTempDirectory( "auth-service-benchmark" );
+        userStorage = new UserStorage( path );
+
+        /*
+         * A single PBKDF2 iteration keeps the mixed benchmark about contention with issuance rather than hashing.
+         */
+        final Pbkdf2PasswordHasher passwordHasher = new Pbkdf2PasswordHasher( "benchmark", 1 );
+        authService = new AuthService( userStorage, new HeapTokenStore( 60 ), passwordHasher, 0, 10000, "", 0 );
+
+        emails = new String[USERS];
+        tokenIds = new String[USERS];
+        for( int i = 0; i < USERS; i++ ) {
+            final User user = new User( Role.USER, "organization" + i % 16, "user" + i + "@example.com" );
+            user.password = passwordHasher.hash( PASSWORD );
+            userStorage.store( user );
+
+            emails[i] = user.email;
+            tokenIds[i] = authService.generateToken( user.email, PASSWORD ).get().id;
+        }
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown() throws IOException {
+        authService.stop();
+        userStorage.stop();
+        try( Stream<Path> files = Files.walk( path ) ) {
+            files.sorted( ( a, b ) -> b.compareTo( a ) ).forEach( file -> file.toFile().delete() );
+        }
+    }
+
+    @Benchmark
+    @Threads( 1 )
+    public Optional<Token> getToken1() {
+        return getToken();
+    }
+
+    @Benchmark
+    @Threads( 2 )
+    public Optional<Token> getToken2() {
+        return getToken();
+    }
+
+    @Benchmark
+    @Threads( 4 )
+    public Optional<Token> getToken4() {
+        return getToken();
+    }
+
+    @Benchmark
+    @Threads( 8 )
+    public Optional<Token> getToken8() {
+        return getToken();
+    }
+
+    @Benchmark
+    @Group( "mixed" )
+    @GroupThreads( 7 )
+    public Optional<Token> mixedGetToken() {
+        return getToken();
+    }
+
+    /**
+     * Logging in again returns the user's live token, so the ids the readers look up stay valid.
+     */
+    @Benchmark
+    @Group( "mixed" )
+    @GroupThreads( 1 )
+    public Optional<Token> mixedGenerateToken() {
+        return authService.generateToken( emails[ThreadLocalRandom.current().nextInt( USERS )], PASSWORD );
+    }
+
+    private Optional<Token> getToken() {
+        return authService.getToken( tokenIds[ThreadLocalRandom.current().nextInt( USERS )] );
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.benchmark;
+
+import oap.http.Context;
+import oap.http.HttpResponse;
+import oap.http.Protocol;
+import oap.http.Request;
+import oap.http.Session;
+import oap.reflect.Reflect;
+import oap.reflect.Reflection;
+import oap.ws.security.CachingTokenService;
+import oap.ws.security.Revocations;
+import oap.ws.security.Role;
+import oap.ws.security.SecurityInterceptor;
+import oap.ws.security.Token;
+import oap.ws.security.TokenService;
+import oap.ws.security.User;
+import oap.ws.security.WsSecurity;
+import org.apache.http.HttpRequest;
+import org.apache.http.client.methods.HttpGet;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link SecurityInterceptor#intercept} per call for an unsecured method and for a secured one whose user
+ * is either already in the session or has to be resolved from the {@code Authorization} header. Token lookups on
+ * a session miss are answered by a {@link CachingTokenService} that already holds the token, as on an API node
+ * serving a logged in user; the miss case includes allocating the fresh session.
+ * <p>
+ * Built with the {@code benchmark} profile and run with
+ * {@code java -jar target/benchmarks.jar SecurityInterceptorBenchmark}, adding {@code -prof gc} to see allocations.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class SecurityInterceptorBenchmark {
+
+    private SecurityInterceptor securityInterceptor;
+    private Reflection.Method secured;
+    private Reflection.Method unsecured;
+    private Request request;
+    private Session session;
+
+    @Setup( Level.Trial )
+    public void setUp() throws UnknownHostException {
+        final Reflection reflection = Reflect.reflect( Api.class );
+        secured = reflection.method( method -> method.name().equals( "secured" ) ).get();
+        unsecured = reflection.method( method -> method.name().equals( "unsecured" ) ).get();
+
+        final Token token = new Token();
+        token.id = UUID.randomUUID().toString();
+        token.user = new User( Role.USER, "987654321", "test@example.com" );
+        token.created = DateTime.now();
+
+        securityInterceptor = new SecurityInterceptor(
+            new CachingTokenService( new FixedTokenService( token ), 1000, TimeUnit.HOURS.toMillis( 1 ), 1000 ) );
+
+        final HttpRequest httpRequest = new HttpGet();
+        httpRequest.setHeader( "Authorization", token.id );
+        httpRequest.setHeader( "Host", "localhost" );
+        request = new Request( httpRequest, new Context( "/", InetAddress.getLocalHost(), Protocol.HTTP.name() ) );
+
+        session = new Session();
+        session.set( "user", token.user );
+    }
+
+    @Benchmark
+    public Optional<HttpResponse> unsecured() {
+        return securityInterceptor.intercept( request, session, unsecured );
+    }
+
+    @Benchmark
+    public Optional<HttpResponse> securedSessionHit() {
+        return securityInterceptor.intercept( request, session, secured );
+    }
+
+    @Benchmark
+    public Optional<HttpResponse> securedSessionMiss() {
+        return securityInterceptor.intercept( request, new Session(), secured );
+    }
+
+    public static class Api {
+
+        @WsSecurity( role = Role.USER )
+        public void secured() {}
+
+        public void unsecured() {}
+    }
+
+    private static class FixedTokenService implements TokenService {
+        private final Token token;
+
+        FixedTokenService( Token token ) {
+            this.token = token;
+        }
+
+        @Override
+        public Optional<Token> getToken( String tokenId ) {
+            return token.id.equals( tokenId ) ? Optional.of( token ) : Optional.empty();
+        }
+
+        @Override
+        public Map<String, Token> getTokens( Collection<String> tokenIds ) {
+            return tokenIds.contains( token.id ) ? Collections.singletonMap( token.id, token ) : Collections.emptyMap();
+        }
+
+        @Override
+        public Revocations revocations( long since ) {
+            return new Revocations( 0, 0, true, Collections.emptyList() );
+        }
+    }
+}
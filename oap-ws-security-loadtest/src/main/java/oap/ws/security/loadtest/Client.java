@@ -0,0 +1,107 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal blocking HTTP client on {@link HttpURLConnection}, which keeps connections alive between requests of
+ * the same thread. No cookies are kept, so every request that needs a user presents its token and goes through
+ * the {@link oap.ws.security.SecurityInterceptor} token lookup.
+ */
+final class Client {
+
+    private final String url;
+
+    Client( String url ) {
+        this.url = url;
+    }
+
+    Response request( String method, String path, String token, String body ) throws IOException {
+        final HttpURLConnection connection = ( HttpURLConnection ) new URL( url + path ).openConnection();
+        connection.setRequestMethod( method );
+        connection.setInstanceFollowRedirects( false );
+        if( token != null ) connection.setRequestProperty( "Authorization", token );
+
+        if( body != null ) {
+            connection.setDoOutput( true );
+            connection.setRequestProperty( "Content-Type", "application/json" );
+            try( OutputStream out = connection.getOutputStream() ) {
+                out.write( body.getBytes( StandardCharsets.UTF_8 ) );
+            }
+        }
+
+        final int code = connection.getResponseCode();
+        final InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+
+        return new Response( code, connection.getHeaderField( "Authorization" ), read( in ) );
+    }
+
+    static String encode( String value ) {
+        try {
+            return URLEncoder.encode( value, "UTF-8" );
+        } catch( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * Drains the body even when it is not needed, otherwise the connection cannot be reused.
+     */
+    private static String read( InputStream in ) throws IOException {
+        if( in == null ) return "";
+
+        try( InputStream input = in ) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            for( int read; ( read = input.read( buffer ) ) > 0; ) bytes.write( buffer, 0, read );
+
+            return new String( bytes.toByteArray(), StandardCharsets.UTF_8 );
+        }
+    }
+
+    static final class Response {
+        final int code;
+        final String authorization;
+        final String body;
+
+        Response( int code, String authorization, String body ) {
+            this.code = code;
+            this.authorization = authorization;
+            this.body = body;
+        }
+
+        boolean isSuccessful() {
+            return code >= 200 && code < 300;
+        }
+    }
+}
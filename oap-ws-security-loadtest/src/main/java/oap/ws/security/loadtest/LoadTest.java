@@ -0,0 +1,297 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import oap.ws.security.LatencyHistogram;
+import oap.ws.security.Role;
+import oap.ws.security.User;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Starts the security server in-process with generated users and organizations and drives a mixed workload at it
+ * over HTTP: logins, token validations through the security interceptor, user CRUD and logouts. Throughput and
+ * latency percentiles per operation are written as JSON, so runs against different releases can be diffed.
+ * <p>
+ * Built with the {@code loadtest} profile and run with {@code mvn exec:java} in this module. Settings are system
+ * properties:
+ * <ul>
+ * <li>{@code loadtest.threads} (16): client threads</li>
+ * <li>{@code loadtest.warmup} (10) and {@code loadtest.duration} (60): seconds to run before and while measuring</li>
+ * <li>{@code loadtest.users} (10000) and {@code loadtest.organizations} (100): generated data</li>
+ * <li>{@code loadtest.hashIterations} (10000): PBKDF2 iterations of the generated passwords</li>
+ * <li>{@code loadtest.mix} ({@value #DEFAULT_MIX}): relative weights of the operations</li>
+ * <li>{@code loadtest.output} (target/loadtest.json): where the report goes</li>
+ * </ul>
+ */
+@Slf4j
+public final class LoadTest {
+
+    static final String DEFAULT_MIX = "login=5,validate=75,userStore=5,userGet=7,userDelete=4,logout=4";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final int threads;
+    private final int warmup;
+    private final int duration;
+    private final int users;
+    private final int organizations;
+    private final int hashIterations;
+    private final String mixSpec;
+    private final Operation[] mix;
+    private final Path output;
+
+    private final AtomicReferenceArray<String> tokens;
+    private final Queue<User> created = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private Client client;
+    private String adminToken;
+
+    private LoadTest( int threads, int warmup, int duration, int users, int organizations, int hashIterations,
+                      String mix, Path output ) {
+        this.threads = threads;
+        this.warmup = warmup;
+        this.duration = duration;
+        this.users = users;
+        this.organizations = organizations;
+        this.hashIterations = hashIterations;
+        this.mixSpec = mix;
+        this.mix = Operation.mix( mix );
+        this.output = output;
+        this.tokens = new AtomicReferenceArray<>( users );
+    }
+
+    public static void main( String[] args ) throws Exception {
+        new LoadTest(
+            Integer.getInteger( "loadtest.threads", 16 ),
+            Integer.getInteger( "loadtest.warmup", 10 ),
+            Integer.getInteger( "loadtest.duration", 60 ),
+            Integer.getInteger( "loadtest.users", 10000 ),
+            Integer.getInteger( "loadtest.organizations", 100 ),
+            Integer.getInteger( "loadtest.hashIterations", 10000 ),
+            System.getProperty( "loadtest.mix", DEFAULT_MIX ),
+            Paths.get( System.getProperty( "loadtest.output", "target/loadtest.json" ) )
+        ).run();
+    }
+
+    private void run() throws Exception {
+        System.setProperty( "http.maxConnections", String.valueOf( threads ) );
+        final int port = freePort();
+
+        try( SecurityServer server = new SecurityServer( port, Math.max( 100, threads * 2 ), users, organizations,
+            hashIterations ) ) {
+            client = new Client( "http://localhost:" + port );
+
+            final Client.Response admin = client.request( "GET", "/login/?email=" + Client.encode( SecurityServer.ADMIN )
+                + "&password=" + Client.encode( SecurityServer.PASSWORD ), null, null );
+            if( !admin.isSuccessful() ) throw new IllegalStateException( "admin login failed: " + admin.code );
+            adminToken = admin.authorization;
+
+            log.info( "Warming up for {}s with {} threads...", warmup, threads );
+            drive( warmup );
+
+            log.info( "Measuring for {}s with {} threads...", duration, threads );
+            final Results results = drive( duration );
+
+            write( results, server.stats() );
+            log.info( "Report written to {}", output.toAbsolutePath() );
+        }
+    }
+
+    private Results drive( int seconds ) throws InterruptedException {
+        final Results results = new Results();
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( seconds );
+        final ExecutorService pool = Executors.newFixedThreadPool( threads );
+
+        for( int i = 0; i < threads; i++ )
+            pool.execute( () -> {
+                final Random random = ThreadLocalRandom.current();
+                while( System.nanoTime() < deadline ) step( random, results );
+            } );
+
+        pool.shutdown();
+        pool.awaitTermination( seconds + 60, TimeUnit.SECONDS );
+        results.elapsed = seconds;
+
+        return results;
+    }
+
+    /**
+     * Performs one operation of the mix. Operations that need state which is not there yet (a token, a created
+     * user) fall back to the operation producing it and are recorded as that one.
+     */
+    private void step( Random random, Results results ) {
+        final int user = random.nextInt( users );
+        final String email = SecurityServer.user( user );
+        final String token = tokens.get( user );
+
+        Operation operation = Operation.next( mix, random );
+        if( token == null && ( operation == Operation.VALIDATE || operation == Operation.LOGOUT ) )
+            operation = Operation.LOGIN;
+        if( created.isEmpty() && ( operation == Operation.USER_GET || operation == Operation.USER_DELETE ) )
+            operation = Operation.USER_STORE;
+
+        switch( operation ) {
+            case LOGIN:
+                final Client.Response login = call( results, operation, "GET",
+                    "/login/?email=" + Client.encode( email ) + "&password=" + SecurityServer.PASSWORD, null, null );
+                if( login != null && login.isSuccessful() ) tokens.set( user, login.authorization );
+                break;
+            case VALIDATE:
+                call( results, operation, "GET", "/organizations/" + SecurityServer.organization( user % organizations ),
+                    token, null );
+                break;
+            case LOGOUT:
+                if( tokens.compareAndSet( user, token, null ) )
+                    call( results, operation, "DELETE", "/logout/?email=" + Client.encode( email ), token, null );
+                break;
+            case USER_STORE:
+                final long id = sequence.incrementAndGet();
+                final User stored = new User( Role.USER, SecurityServer.organization( ( int ) ( id % organizations ) ),
+                    "created" + id + "@loadtest.oap" );
+                stored.password = SecurityServer.PASSWORD;
+                final Client.Response response = call( results, operation, "POST",
+                    "/organizations/" + stored.organizationId + "/users/store", adminToken, json( stored ) );
+                if( response != null && response.isSuccessful() ) created.add( stored );
+                break;
+            case USER_GET:
+                final User existing = created.peek();
+                if( existing != null ) call( results, operation, "GET", "/organizations/" + existing.organizationId
+                    + "/users/" + Client.encode( existing.email ), adminToken, null );
+                break;
+            case USER_DELETE:
+                final User deleted = created.poll();
+                if( deleted != null ) call( results, operation, "DELETE", "/organizations/" + deleted.organizationId
+                    + "/users/" + Client.encode( deleted.email ) + "/delete", adminToken, null );
+                break;
+        }
+    }
+
+    private Client.Response call( Results results, Operation operation, String method, String path, String token,
+                                  String body ) {
+        final long start = System.nanoTime();
+        try {
+            final Client.Response response = client.request( method, path, token, body );
+            results.record( operation, System.nanoTime() - start, response.isSuccessful() );
+            if( !response.isSuccessful() ) log.trace( "{} {}: {} {}", method, path, response.code, response.body );
+
+            return response;
+        } catch( IOException e ) {
+            results.record( operation, System.nanoTime() - start, false );
+            log.trace( "{} {}: {}", method, path, e.getMessage() );
+
+            return null;
+        }
+    }
+
+    private void write( Results results, Map<String, Object> serverStats ) throws IOException {
+        final Map<String, Object> settings = new LinkedHashMap<>();
+        settings.put( "threads", threads );
+        settings.put( "warmup", warmup );
+        settings.put( "duration", duration );
+        settings.put( "users", users );
+        settings.put( "organizations", organizations );
+        settings.put( "hashIterations", hashIterations );
+        settings.put( "mix", mixSpec );
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put( "settings", settings );
+        report.put( "operations", results.report() );
+        report.put( "server", serverStats );
+
+        final Path parent = output.toAbsolutePath().getParent();
+        if( parent != null ) Files.createDirectories( parent );
+        MAPPER.writerWithDefaultPrettyPrinter().writeValue( output.toFile(), report );
+    }
+
+    private static String json( User user ) {
+        try {
+            return MAPPER.writeValueAsString( user );
+        } catch( IOException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try( ServerSocket socket = new ServerSocket( 0 ) ) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static final class Results {
+        private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>( Operation.class );
+        private final Map<Operation, LongAdder> errors = new EnumMap<>( Operation.class );
+        private int elapsed;
+
+        Results() {
+            for( Operation operation : Operation.values() ) {
+                latencies.put( operation, new LatencyHistogram() );
+                errors.put( operation, new LongAdder() );
+            }
+        }
+
+        void record( Operation operation, long nanos, boolean successful ) {
+            latencies.get( operation ).record( nanos );
+            if( !successful ) errors.get( operation ).increment();
+        }
+
+        /**
+         * Latencies are in microseconds and include failed calls.
+         */
+        Map<String, Object> report() {
+            final Map<String, Object> report = new LinkedHashMap<>();
+
+            for( Operation operation : Operation.values() ) {
+                final LatencyHistogram latency = latencies.get( operation );
+                final Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put( "throughput", elapsed > 0 ? ( double ) latency.count() / elapsed : 0 );
+                stats.put( "errors", errors.get( operation ).sum() );
+                stats.putAll( latency.snapshot() );
+                report.put( operation.key, stats );
+            }
+
+            return report;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+enum Operation {
+    LOGIN( "login" ),
+    VALIDATE( "validate" ),
+    USER_STORE( "userStore" ),
+    USER_GET( "userGet" ),
+    USER_DELETE( "userDelete" ),
+    LOGOUT( "logout" );
+
+    final String key;
+
+    Operation( String key ) {
+        this.key = key;
+    }
+
+    /**
+     * Parses a mix such as {@code login=5,validate=80,logout=5} into a table every operation appears in as many
+     * times as its weight, so that picking a random entry follows the mix.
+     */
+    static Operation[] mix( String mix ) {
+        final List<Operation> table = new ArrayList<>();
+
+        for( String weight : mix.split( "," ) ) {
+            final String[] keyValue = weight.trim().split( "=" );
+            if( keyValue.length != 2 ) throw new IllegalArgumentException( "invalid mix entry: " + weight );
+
+            final Operation operation = byKey( keyValue[0].trim() );
+            for( int i = Integer.parseInt( keyValue[1].trim() ); i > 0; i-- ) table.add( operation );
+        }
+
+        if( table.isEmpty() ) throw new IllegalArgumentException( "empty mix: " + mix );
+
+        return table.toArray( new Operation[table.size()] );
+    }
+
+    static Operation next( Operation[] mix, Random random ) {
+        return mix[random.nextInt( mix.length )];
+    }
+
+    private static Operation byKey( String key ) {
+        for( Operation operation : values() ) if( operation.key.equals( key ) ) return operation;
+
+        throw new IllegalArgumentException( "unknown operation: " + key );
+    }
+}
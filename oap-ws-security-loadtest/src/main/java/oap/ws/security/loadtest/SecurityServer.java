@@ -0,0 +1,211 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.application.Application;
+import oap.concurrent.SynchronizedThread;
+import oap.http.PlainHttpListener;
+import oap.http.Server;
+import oap.http.cors.GenericCorsPolicy;
+import oap.ws.SessionManager;
+import oap.ws.WebServices;
+import oap.ws.WsConfig;
+import oap.ws.security.AuditLog;
+import oap.ws.security.CachingTokenService;
+import oap.ws.security.ExecutorTokenService;
+import oap.ws.security.Organization;
+import oap.ws.security.Role;
+import oap.ws.security.SecurityInterceptor;
+import oap.ws.security.SignedTokenService;
+import oap.ws.security.User;
+import oap.ws.security.server.AuthService;
+import oap.ws.security.server.AuthWS;
+import oap.ws.security.server.DefaultTokenService;
+import oap.ws.security.server.HeapTokenStore;
+import oap.ws.security.server.LoginThrottle;
+import oap.ws.security.server.LoginWS;
+import oap.ws.security.server.LogoutWS;
+import oap.ws.security.server.OrganizationStorage;
+import oap.ws.security.server.OrganizationWS;
+import oap.ws.security.server.PasswordHasher;
+import oap.ws.security.server.Pbkdf2PasswordHasher;
+import oap.ws.security.server.TokenJournal;
+import oap.ws.security.server.TokenResponses;
+import oap.ws.security.server.TokenSweeper;
+import oap.ws.security.server.UserStorage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The security server wired with the components and defaults of both {@code oap-module.conf} files, minus
+ * remoting: the interceptor looks tokens up through the same {@link ExecutorTokenService}, {@link
+ * SignedTokenService} and {@link CachingTokenService} chain, over the local {@link DefaultTokenService}. The
+ * {@link LoginThrottle} has no per-client bucket, since every simulated client shares one address. The audit log
+ * is on, so its cost is measured. Storage, the token journal and the audit log live in a temporary directory
+ * that is removed on {@link #close()}.
+ */
+@Slf4j
+final class SecurityServer implements Closeable {
+
+    static final String PASSWORD = "loadtest";
+    static final String ADMIN = "admin@loadtest.oap";
+
+    final AuthService authService;
+    final CachingTokenService tokenService;
+    final SecurityInterceptor securityInterceptor;
+
+    private final Path directory;
+    private final AuditLog auditLog;
+    private final TokenJournal tokenJournal;
+    private final TokenSweeper tokenSweeper;
+    private final LoginThrottle loginThrottle;
+    private final ExecutorTokenService asyncTokenService;
+    private final Server server;
+    private final WebServices webServices;
+    private final SynchronizedThread listener;
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool( 2 );
+
+    SecurityServer( int port, int workers, int users, int organizations, int hashIterations ) throws IOException {
+        directory = Files.createTempDirectory( "oap-security-loadtest" );
+
+        final UserStorage userStorage = new UserStorage( directory.resolve( "users" ) );
+        final OrganizationStorage organizationStorage = new OrganizationStorage( directory.resolve( "organizations" ) );
+        final PasswordHasher passwordHasher = new Pbkdf2PasswordHasher( "loadtest", hashIterations );
+        generate( userStorage, organizationStorage, passwordHasher, users, organizations );
+
+        auditLog = new AuditLog( directory.resolve( "audit" ), 65536, 1024, 104857600, 10 );
+        auditLog.start();
+
+        final HeapTokenStore tokenStore = new HeapTokenStore( 60, 1000000, 0 );
+        authService = new AuthService( userStorage, tokenStore, passwordHasher, 0, 10000, "", 15 );
+        tokenJournal = new TokenJournal( authService, directory.resolve( "tokens" ), 65536 );
+        tokenJournal.start();
+        tokenSweeper = new TokenSweeper( tokenStore );
+        final TokenResponses tokenResponses = new TokenResponses( authService, 100000 );
+        loginThrottle = new LoginThrottle( 1048576, 10, 5, 0, 0, 64 );
+
+        asyncTokenService = new ExecutorTokenService( new DefaultTokenService( authService ), 32, 256 );
+        tokenService = new CachingTokenService( new SignedTokenService( asyncTokenService, "" ), 100000, 10000, 1000,
+            900000 );
+        securityInterceptor = new SecurityInterceptor( tokenService, 2000, auditLog );
+
+        Application.register( "ws-login",
+            new LoginWS( authService, "", 60, loginThrottle, tokenResponses, auditLog ) );
+        Application.register( "ws-logout", new LogoutWS( authService, auditLog ) );
+        Application.register( "ws-auth", new AuthWS( authService, tokenResponses ) );
+        Application.register( "ws-organization",
+            new OrganizationWS( organizationStorage, userStorage, passwordHasher, auditLog, authService ) );
+        Application.register( "security-interceptor", securityInterceptor );
+
+        server = new Server( workers );
+        webServices = new WebServices( server, new SessionManager( 1, null, "/" ),
+            new GenericCorsPolicy( "*", "Authorization", true ),
+            WsConfig.CONFIGURATION.fromResource( getClass(), "ws-loadtest.conf" ) );
+        webServices.start();
+        listener = new SynchronizedThread( new PlainHttpListener( server, port ) );
+        listener.start();
+
+        scheduler.scheduleWithFixedDelay( tokenService, 1, 1, TimeUnit.SECONDS );
+        scheduler.scheduleWithFixedDelay( tokenSweeper, 60, 60, TimeUnit.SECONDS );
+    }
+
+    static String user( int index ) {
+        return "user" + index + "@loadtest.oap";
+    }
+
+    static String organization( int index ) {
+        return "org" + index;
+    }
+
+    /**
+     * Every user shares the same password, so it is hashed only once however many users are generated.
+     */
+    private static void generate( UserStorage userStorage, OrganizationStorage organizationStorage,
+                                  PasswordHasher passwordHasher, int users, int organizations ) {
+        final String password = passwordHasher.hash( PASSWORD );
+
+        final List<Organization> generatedOrganizations = new ArrayList<>( organizations );
+        for( int i = 0; i < organizations; i++ ) {
+            final Organization organization = new Organization( organization( i ) );
+            organization.name = "Organization " + i;
+            generatedOrganizations.add( organization );
+        }
+        organizationStorage.store( generatedOrganizations );
+
+        final List<User> generatedUsers = new ArrayList<>( users + 1 );
+        for( int i = 0; i < users; i++ ) {
+            final User user = new User( Role.USER, organization( i % organizations ), user( i ) );
+            user.password = password;
+            generatedUsers.add( user );
+        }
+        final User admin = new User( Role.ADMIN, organization( 0 ), ADMIN );
+        admin.password = password;
+        generatedUsers.add( admin );
+        userStorage.store( generatedUsers );
+
+        log.info( "Generated {} users in {} organizations", users, organizations );
+    }
+
+    Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "auth", authService.stats() );
+        stats.put( "interceptor", securityInterceptor.stats() );
+        stats.put( "tokenCache", tokenService.stats() );
+        stats.put( "loginThrottle", loginThrottle.stats() );
+        stats.put( "tokenSweeper", tokenSweeper.stats() );
+        stats.put( "audit", auditLog.stats() );
+
+        return stats;
+    }
+
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdown();
+        listener.stop();
+        server.stop();
+        webServices.stop();
+        asyncTokenService.stop();
+        tokenJournal.stop();
+        authService.stop();
+        auditLog.stop();
+
+        try( Stream<Path> paths = Files.walk( directory ) ) {
+            paths.sorted( Comparator.reverseOrder() ).forEach( path -> path.toFile().delete() );
+        }
+    }
+}
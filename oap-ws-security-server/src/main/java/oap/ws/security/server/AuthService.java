@@ -24,96 +24,387 @@
 
 package oap.ws.security.server;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.collect.Iterables;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import lombok.extern.slf4j.Slf4j;
-import oap.util.Hash;
+import oap.ws.security.LatencyHistogram;
+import oap.ws.security.LiveTokens;
+import oap.ws.security.Principals;
+import oap.ws.security.Revocations;
 import oap.ws.security.Token;
+import oap.ws.security.TokenSigner;
 import oap.ws.security.User;
 import org.joda.time.DateTime;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
-public class AuthService {
+public class AuthService implements AuthShard {
 
-    private final Cache<String, Token> tokenStorage;
+    /**
+     * Ids issued ahead of use, see {@link LiveTokenFilter}.
+     */
+    private static final int RESERVED_IDS = 4096;
+
+    private final TokenStore tokenStorage;
+    /**
+     * email -> id of the user's live token. Kept in sync with {@link #tokenStorage} by its removal listener,
+     * so issuance and logout never have to scan the whole cache.
+     */
+    private final ConcurrentMap<String, String> userTokens = new ConcurrentHashMap<>();
+    private final RevocationLog revocationLog;
+    private final LiveTokenFilter liveTokens;
+    private final List<TokenListener> tokenListeners = new CopyOnWriteArrayList<>();
     private final UserStorage userStorage;
-    private final String salt;
+    private final PasswordHasher passwordHasher;
+    private final ExecutorService hashing;
+    private final int hashingThreads;
+    private final TokenSigner tokenSigner;
+    private final int signedTokenExpiration;
+    private final int shard;
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+    private final LatencyHistogram hashingLatency = new LatencyHistogram();
+    private final LatencyHistogram hashingWait = new LatencyHistogram();
+    private final LongAdder failedLogins = new LongAdder();
 
     public AuthService( UserStorage userStorage, int expirationTime, String salt ) {
-        this.tokenStorage = CacheBuilder.newBuilder()
-            .expireAfterAccess( expirationTime, TimeUnit.MINUTES )
-            .build();
+        this( userStorage, new HeapTokenStore( expirationTime ), new Pbkdf2PasswordHasher( salt, 10000 ), 0, 10000,
+            "", 0 );
+    }
+
+    /**
+     * @param tokenStore            where live tokens are kept; an {@link OffHeapTokenStore} only holds unsigned
+     *                              tokens, so it cannot be combined with a {@code signingKey}
+     * @param hashingThreads        size of the pool password checks run on, {@code 0} for one per core. At most
+     *                              64 checks per thread may wait for it; further logins fail fast with
+     *                              {@link java.util.concurrent.RejectedExecutionException}
+     * @param revocationLogSize     revocations kept for caching token services to catch up with, must be positive
+     * @param signingKey            if not empty, token ids are signed with it (see {@link TokenSigner}) and can be
+     *                              validated by API nodes configured with the same key
+     * @param signedTokenExpiration lifetime of signed tokens in minutes
+     */
+    public AuthService( UserStorage userStorage, TokenStore tokenStore, PasswordHasher passwordHasher,
+                        int hashingThreads, int revocationLogSize, String signingKey, int signedTokenExpiration ) {
+        this( userStorage, tokenStore, passwordHasher, hashingThreads, revocationLogSize, signingKey,
+            signedTokenExpiration, -1 );
+    }
+
+    /**
+     * @param shard number of this node in a sharded deployment (see {@link ShardRouter}), used to prefix the ids
+     *              of the tokens it issues, or {@code -1} if it is the only one
+     */
+    public AuthService( UserStorage userStorage, TokenStore tokenStore, PasswordHasher passwordHasher,
+                        int hashingThreads, int revocationLogSize, String signingKey, int signedTokenExpiration,
+                        int shard ) {
+        this( userStorage, tokenStore, passwordHasher, hashingThreads, revocationLogSize, signingKey,
+            signedTokenExpiration, shard, 0 );
+    }
+
+    /**
+     * @param liveTokenFilterSize number of live tokens the {@link LiveTokenFilter} replicated to caching token
+     *                            services is sized for, or {@code 0} for none. Signed token ids are validated by
+     *                            their signature instead, so there is no filter if a {@code signingKey} is set
+     */
+    public AuthService( UserStorage userStorage, TokenStore tokenStore, PasswordHasher passwordHasher,
+                        int hashingThreads, int revocationLogSize, String signingKey, int signedTokenExpiration,
+                        int shard, int liveTokenFilterSize ) {
+        this.tokenStorage = tokenStore;
+        this.revocationLog = new RevocationLog( revocationLogSize );
         this.userStorage = userStorage;
-        this.salt = salt;
+        this.passwordHasher = passwordHasher;
+
+        final int threads = hashingThreads > 0 ? hashingThreads : Runtime.getRuntime().availableProcessors();
+        this.hashingThreads = threads;
+        this.hashing = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>( threads * 64 ),
+            new ThreadFactoryBuilder().setNameFormat( "password-hashing-%d" ).setDaemon( true ).build() );
+        this.tokenSigner = signingKey.isEmpty() ? null : new TokenSigner( signingKey );
+        if( tokenSigner != null && tokenStore instanceof OffHeapTokenStore )
+            throw new IllegalArgumentException( "signed tokens cannot be kept in an off-heap token store" );
+        this.signedTokenExpiration = signedTokenExpiration;
+        this.shard = shard;
+        this.liveTokens = tokenSigner == null && liveTokenFilterSize > 0
+            ? new LiveTokenFilter( liveTokenFilterSize, 0.01, id -> Shards.prefix( shard, id ), RESERVED_IDS,
+                revocationLogSize )
+            : null;
+
+        tokenStore.onRemoval( token -> {
+            userTokens.remove( token.user.email, token.id );
+            if( liveTokens != null ) liveTokens.remove( token.id );
+            for( TokenListener listener : tokenListeners ) listener.removed( token );
+        } );
+    }
+
+    @Override
+    public Optional<Token> generateToken( String email, String password ) {
+        final long start = System.nanoTime();
+        try {
+            final Optional<User> userOptional = userStorage.get( email );
+
+            if( userOptional.isPresent() ) {
+                final User user = userOptional.get();
+
+                if( checkPassword( user, password ) ) {
+                    return Optional.of( issueToken( user ) );
+                }
+            }
+
+            failedLogins.increment();
+
+            return Optional.empty();
+        } finally {
+            loginLatency.record( System.nanoTime() - start );
+        }
     }
 
-    public synchronized Optional<Token> generateToken( String email, String password ) {
-        final Optional<User> userOptional = userStorage.get( email );
+    /**
+     * Runs the (deliberately expensive) password check on the bounded hashing pool, upgrading outdated hashes
+     * while the plain password is at hand.
+     */
+    private boolean checkPassword( User user, String password ) {
+        final long submitted = System.nanoTime();
+        final Future<Boolean> check = hashing.submit( () -> {
+            final long started = System.nanoTime();
+            hashingWait.record( started - submitted );
 
-        if( userOptional.isPresent() ) {
-            final User user = userOptional.get();
+            final String encoded = user.password;
+            final boolean matches = passwordHasher.matches( password, encoded );
+            hashingLatency.record( System.nanoTime() - started );
+            if( !matches ) return false;
 
-            final String inputPassword = Hash.sha256( salt, password );
-            if( user.password.equals( inputPassword ) ) {
-                final List<Token> tokens = new ArrayList<>();
+            if( passwordHasher.needsRehash( encoded ) ) {
+                log.debug( "Upgrading password hash of user [{}]...", user.email );
 
-                synchronized( this ) {
-                    tokenStorage.asMap().forEach( ( s, token ) -> {
-                        if( token.user.email.equals( user.email ) ) {
-                            tokens.add( token );
-                        }
-                    } );
+                user.password = passwordHasher.hash( password );
+                userStorage.store( user );
+            }
+
+            return true;
+        } );
+
+        try {
+            return check.get();
+        } catch( InterruptedException e ) {
+            check.cancel( true );
+            Thread.currentThread().interrupt();
 
-                    if( tokens.isEmpty() ) {
-                        log.debug( "Generating new token for user [{}]...", user.email );
-                        final Token token = new Token();
-                        token.user = user;
-                        token.created = DateTime.now();
-                        token.id = UUID.randomUUID().toString();
+            return false;
+        } catch( ExecutionException e ) {
+            throw Throwables.propagate( e.getCause() );
+        }
+    }
+
+    /**
+     * Replaces the users' plain passwords with their hashes on the bounded hashing pool. At most one hash per pool
+     * thread is queued at a time, so logins arriving meanwhile wait behind a few hashes rather than the whole batch.
+     */
+    public void hashPasswords( List<User> users ) {
+        for( int from = 0; from < users.size(); from += hashingThreads ) {
+            final List<Future<?>> hashes = new ArrayList<>( hashingThreads );
+            for( User user : users.subList( from, Math.min( users.size(), from + hashingThreads ) ) )
+                hashes.add( hashing.submit( () -> {
+                    user.password = passwordHasher.hash( user.password );
+                } ) );
+
+            try {
+                for( Future<?> hash : hashes ) Uninterruptibles.getUninterruptibly( hash );
+            } catch( ExecutionException e ) {
+                throw Throwables.propagate( e.getCause() );
+            }
+        }
+    }
 
-                        tokenStorage.put( token.id, token );
+    /**
+     * Returns the user's live token or publishes a new one. Logins of different users never contend;
+     * concurrent logins of the same user race on {@link #userTokens} and the loser drops its candidate.
+     */
+    private Token issueToken( User user ) {
+        while( true ) {
+            final String existingId = userTokens.get( user.email );
 
-                        return Optional.of( token );
-                    } else {
-                        final Token existingToken = Iterables.getOnlyElement( tokens );
+            if( existingId != null ) {
+                final Token existingToken = tokenStorage.get( existingId ).orElse( null );
 
-                        log.debug( "Updating existing token for user [{}]...", user.email );
-                        tokenStorage.put( existingToken.id, existingToken );
+                if( existingToken != null && isFresh( existingToken ) ) {
+                    log.debug( "Updating existing token for user [{}]...", user.email );
+                    for( TokenListener listener : tokenListeners ) listener.accessed( existingToken );
 
-                        return Optional.of( existingToken );
-                    }
+                    return existingToken;
                 }
+
+                if( existingToken != null ) tokenStorage.invalidate( existingId );
+                userTokens.remove( user.email, existingId );
             }
+
+            final Token token = new Token();
+            token.user = userStorage.principal( user.email ).orElseGet( () -> Principals.of( user ) );
+            token.created = DateTime.now();
+            if( tokenSigner != null ) {
+                token.expires = token.created.plusMinutes( signedTokenExpiration );
+                token.id = Shards.prefix( shard, tokenSigner.sign( user, token.created, token.expires ) );
+            } else if( liveTokens != null ) token.id = liveTokens.nextId();
+            else token.id = Shards.prefix( shard, UUID.randomUUID().toString() );
+
+            tokenStorage.put( token );
+
+            if( userTokens.putIfAbsent( user.email, token.id ) == null ) {
+                log.debug( "Generated new token for user [{}]", user.email );
+                for( TokenListener listener : tokenListeners ) listener.issued( token );
+
+                return token;
+            }
+
+            tokenStorage.invalidate( token.id );
+        }
+    }
+
+    /**
+     * Signed tokens past half of their lifetime are rotated on login rather than handed out again.
+     */
+    private boolean isFresh( Token token ) {
+        return token.expires == null
+            || token.expires.minusSeconds( signedTokenExpiration * 30 ).isAfterNow();
+    }
+
+    /**
+     * Non-blocking: the store is concurrent, so validation never waits on issuance or other lookups.
+     */
+    @Override
+    public Optional<Token> getToken( String tokenId ) {
+        final Token token = tokenStorage.get( tokenId ).orElse( null );
+
+        if( token == null || token.expires != null && !token.expires.isAfterNow() ) return Optional.empty();
+
+        for( TokenListener listener : tokenListeners ) listener.accessed( token );
+
+        return Optional.of( current( token ) );
+    }
+
+    @Override
+    public Map<String, Token> getTokens( Collection<String> tokenIds ) {
+        final Map<String, Token> tokens = new HashMap<>( tokenStorage.getAll( tokenIds ) );
+
+        tokens.values().removeIf( token -> token.expires != null && !token.expires.isAfterNow() );
+        for( Token token : tokens.values() ) {
+            for( TokenListener listener : tokenListeners ) listener.accessed( token );
+            current( token );
         }
 
-        return Optional.empty();
+        return tokens;
     }
 
-    public synchronized Optional<Token> getToken( String tokenId ) {
-        return Optional.ofNullable( tokenStorage.getIfPresent( tokenId ) );
+    /**
+     * Tokens hold the principal their user had at login; swap in the current one, so that role or organization
+     * changes in {@link UserStorage} reach live tokens.
+     */
+    private Token current( Token token ) {
+        final User principal = userStorage.principal( token.user.email ).orElse( null );
+        if( principal != null && principal != token.user ) token.user = principal;
+
+        return token;
     }
 
-    public void invalidateUser( String email ) {
-        final ConcurrentMap<String, Token> tokens = tokenStorage.asMap();
+    /**
+     * Puts back a token saved before a restart, last accessed at {@code accessed} (epoch millis). Tokens of users
+     * that no longer exist are dropped.
+     */
+    public Optional<Token> restoreToken( String tokenId, String email, DateTime created, DateTime expires,
+                                         long accessed ) {
+        return userStorage.principal( email ).map( user -> {
+            final Token token = new Token();
+            token.id = tokenId;
+            token.user = user;
+            token.created = created;
+            token.expires = expires;
 
-        for( Map.Entry<String, Token> entry : tokens.entrySet() ) {
-            if( Objects.equals( entry.getValue().user.email, email ) ) {
-                log.debug( "Deleting token [{}]...", entry.getKey() );
-                tokenStorage.invalidate( entry.getKey() );
+            if( liveTokens != null && !tokenStorage.get( tokenId ).isPresent() ) liveTokens.add( tokenId );
+            tokenStorage.restore( token, accessed );
 
-                return;
-            }
+            final String previousId = userTokens.put( email, tokenId );
+            if( previousId != null && !previousId.equals( tokenId ) ) tokenStorage.invalidate( previousId );
+
+            return token;
+        } );
+    }
+
+    public void addTokenListener( TokenListener listener ) {
+        tokenListeners.add( listener );
+    }
+
+    int expirationTime() {
+        return tokenStorage.expirationTime();
+    }
+
+    public Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "login", loginLatency.snapshot() );
+        stats.put( "failedLogins", failedLogins.sum() );
+        stats.put( "hashing", hashingLatency.snapshot() );
+        stats.put( "hashingWait", hashingWait.snapshot() );
+        stats.put( "tokens", tokenStorage.stats() );
+        if( liveTokens != null ) stats.put( "liveTokens", liveTokens.stats() );
+
+        return stats;
+    }
+
+    public void stop() {
+        hashing.shutdown();
+    }
+
+    @Override
+    public Optional<String> invalidateUser( String email ) {
+        final String tokenId = userTokens.remove( email );
+
+        if( tokenId != null ) {
+            log.debug( "Deleting token [{}]...", tokenId );
+            tokenStorage.invalidate( tokenId );
+            revocationLog.append( tokenId );
         }
+
+        return Optional.ofNullable( tokenId );
+    }
+
+    @Override
+    public void revoked( String tokenId ) {
+        revocationLog.append( tokenId );
+    }
+
+    @Override
+    public Revocations revocations( long since ) {
+        return revocationLog.since( since );
+    }
+
+    @Override
+    public void storeUsers( List<User> users ) {
+        userStorage.store( users );
+    }
+
+    @Override
+    public void deleteUser( String email ) {
+        userStorage.delete( email );
+    }
+
+    @Override
+    public LiveTokens liveTokens( long epoch, long since ) {
+        return liveTokens != null ? liveTokens.since( epoch, since ) : null;
     }
 
 }
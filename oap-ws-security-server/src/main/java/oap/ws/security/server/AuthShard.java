@@ -0,0 +1,73 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.security.LiveTokens;
+import oap.ws.security.Revocations;
+import oap.ws.security.Token;
+import oap.ws.security.User;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Token operations of one security server. Implemented locally by {@link AuthService} and, in a sharded
+ * deployment, exposed to the other nodes over oap-remoting and combined by a {@link ShardRouter}.
+ */
+public interface AuthShard {
+    Optional<Token> generateToken( String email, String password );
+
+    Optional<Token> getToken( String tokenId );
+
+    Map<String, Token> getTokens( Collection<String> tokenIds );
+
+    /**
+     * @return id of the token revoked, if the user had one
+     */
+    Optional<String> invalidateUser( String email );
+
+    /**
+     * Records a token revoked by another shard, so that caching token services polling this node see it too.
+     */
+    void revoked( String tokenId );
+
+    Revocations revocations( long since );
+
+    /**
+     * Stores users, with hashed passwords, in the shard's {@link UserStorage}.
+     */
+    void storeUsers( List<User> users );
+
+    void deleteUser( String email );
+
+    /**
+     * @see oap.ws.security.TokenService#liveTokens(long, long)
+     */
+    default LiveTokens liveTokens( long epoch, long since ) {
+        return null;
+    }
+}
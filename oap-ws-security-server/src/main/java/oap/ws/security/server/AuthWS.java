@@ -25,27 +25,48 @@
 package oap.ws.security.server;
 
 import lombok.extern.slf4j.Slf4j;
+import oap.http.HttpResponse;
+import oap.http.Request;
 import oap.ws.WsMethod;
 import oap.ws.WsParam;
-import oap.ws.security.Token;
+import org.apache.http.entity.ContentType;
 
-import java.util.Optional;
+import java.util.List;
 
+import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 import static oap.http.Request.HttpMethod.GET;
+import static oap.http.Request.HttpMethod.POST;
+import static oap.ws.WsParam.From.BODY;
 import static oap.ws.WsParam.From.PATH;
+import static oap.ws.WsParam.From.REQUEST;
 
 @Slf4j
 public class AuthWS {
 
-    private final AuthService authService;
+    private final AuthShard authService;
+    private final TokenResponses tokenResponses;
 
-    public AuthWS( AuthService authService ) {
+    public AuthWS( AuthShard authService ) {
+        this( authService, new TokenResponses( 100000, 60 ) );
+    }
+
+    public AuthWS( AuthShard authService, TokenResponses tokenResponses ) {
         this.authService = authService;
+        this.tokenResponses = tokenResponses;
     }
 
     @WsMethod( method = GET, path = "/{tokenId}" )
-    public Optional<Token> getToken( @WsParam( from = PATH ) String tokenId ) {
-        return authService.getToken( tokenId ).map( Converters::toTokenDTO );
+    public HttpResponse getToken( @WsParam( from = PATH ) String tokenId,
+                                  @WsParam( from = REQUEST ) Request request ) {
+        return authService.getToken( tokenId )
+            .map( token -> tokenResponses.respond( token, request.header( "If-None-Match" ) ) )
+            .orElseGet( () -> HttpResponse.status( HTTP_NOT_FOUND ) );
+    }
+
+    @WsMethod( method = POST, path = "/" )
+    public HttpResponse getTokens( @WsParam( from = BODY ) List<String> tokenIds ) {
+        return HttpResponse.ok( tokenResponses.json( authService.getTokens( tokenIds ) ), true,
+            ContentType.APPLICATION_JSON );
     }
 
 }
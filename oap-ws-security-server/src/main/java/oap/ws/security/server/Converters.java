@@ -46,6 +46,7 @@ public final class Converters {
         final Token tokenDTO = new Token();
         tokenDTO.id = token.id;
         tokenDTO.created = token.created;
+        tokenDTO.expires = token.expires;
         tokenDTO.user = toUserDTO( token.user );
 
         return tokenDTO;
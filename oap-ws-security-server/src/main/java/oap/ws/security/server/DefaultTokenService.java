@@ -24,16 +24,20 @@
 
 package oap.ws.security.server;
 
+import oap.ws.security.LiveTokens;
+import oap.ws.security.Revocations;
 import oap.ws.security.Token;
 import oap.ws.security.TokenService;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
 
 public class DefaultTokenService implements TokenService {
 
-    private final AuthService authService;
+    private final AuthShard authService;
 
-    public DefaultTokenService( AuthService authService ) {
+    public DefaultTokenService( AuthShard authService ) {
         this.authService = authService;
     }
 
@@ -41,4 +45,19 @@ public class DefaultTokenService implements TokenService {
     public Optional<Token> getToken( String tokenId ) {
         return authService.getToken( tokenId );
     }
+
+    @Override
+    public Map<String, Token> getTokens( Collection<String> tokenIds ) {
+        return authService.getTokens( tokenIds );
+    }
+
+    @Override
+    public Revocations revocations( long since ) {
+        return authService.revocations( since );
+    }
+
+    @Override
+    public LiveTokens liveTokens( long epoch, long since ) {
+        return authService.liveTokens( epoch, since );
+    }
 }
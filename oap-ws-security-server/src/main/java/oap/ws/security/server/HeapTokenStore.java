@@ -0,0 +1,213 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import oap.ws.security.Token;
+import oap.ws.security.User;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Default {@link TokenStore}: tokens live on-heap in a Guava cache. It may be bounded by the number of tokens or by
+ * their estimated size in bytes; once full, the tokens idle for longest are evicted first.
+ * <p>
+ * The cache can't backdate an entry's access time, so {@link #restore(Token, long) restored} tokens that haven't
+ * been read since keep their own idle deadline, checked on read and by {@link #cleanUp()}.
+ */
+public class HeapTokenStore implements TokenStore {
+
+    private final Cache<String, Token> tokens;
+    private final int expirationTime;
+    private final long expiration;
+    private final Ticker ticker;
+    /**
+     * token id -> {@link #ticker} time a restored, not yet read token expires at.
+     */
+    private final ConcurrentMap<String, Long> restoredDeadlines = new ConcurrentHashMap<>();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private volatile Consumer<Token> removalListener = token -> {
+    };
+
+    public HeapTokenStore( int expirationTime ) {
+        this( expirationTime, 0, 0 );
+    }
+
+    /**
+     * @param maximumSize   maximum number of tokens, {@code 0} for no limit
+     * @param maximumWeight maximum estimated size of all tokens in bytes, {@code 0} for no limit. Cannot be combined
+     *                      with {@code maximumSize}
+     */
+    public HeapTokenStore( int expirationTime, long maximumSize, long maximumWeight ) {
+        this( expirationTime, maximumSize, maximumWeight, Ticker.systemTicker() );
+    }
+
+    HeapTokenStore( int expirationTime, long maximumSize, long maximumWeight, Ticker ticker ) {
+        if( maximumSize > 0 && maximumWeight > 0 )
+            throw new IllegalArgumentException( "either maximumSize or maximumWeight may be set, not both" );
+
+        this.expirationTime = expirationTime;
+        this.expiration = TimeUnit.MINUTES.toNanos( expirationTime );
+        this.ticker = ticker;
+
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+            .expireAfterAccess( expirationTime, TimeUnit.MINUTES )
+            .ticker( ticker )
+            .recordStats();
+        if( maximumSize > 0 ) builder.maximumSize( maximumSize );
+        if( maximumWeight > 0 )
+            builder.maximumWeight( maximumWeight ).<String, Token>weigher( ( id, token ) -> weight( token ) );
+
+        this.tokens = builder
+            .<String, Token>removalListener( notification -> {
+                final RemovalCause cause = notification.getCause();
+                if( cause == RemovalCause.EXPIRED ) expired.increment();
+                else if( cause == RemovalCause.SIZE ) evicted.increment();
+
+                if( cause != RemovalCause.REPLACED && notification.getValue() != null ) {
+                    restoredDeadlines.remove( notification.getKey() );
+                    removalListener.accept( notification.getValue() );
+                }
+            } )
+            .build();
+    }
+
+    /**
+     * Rough number of bytes a token and its user copy occupy.
+     */
+    static int weight( Token token ) {
+        final User user = token.user;
+
+        return 256 + 2 * ( token.id.length() + length( user.email ) + length( user.password )
+            + length( user.organizationId ) + length( user.organizationName ) );
+    }
+
+    private static int length( String value ) {
+        return value != null ? value.length() : 0;
+    }
+
+    @Override
+    public Optional<Token> get( String tokenId ) {
+        if( !restoredDeadlines.isEmpty() && expireRestored( tokenId ) ) return Optional.empty();
+
+        return Optional.ofNullable( tokens.getIfPresent( tokenId ) );
+    }
+
+    @Override
+    public Map<String, Token> getAll( Collection<String> tokenIds ) {
+        if( !restoredDeadlines.isEmpty() ) for( String tokenId : tokenIds ) expireRestored( tokenId );
+
+        return tokens.getAllPresent( tokenIds );
+    }
+
+    @Override
+    public void put( Token token ) {
+        restoredDeadlines.remove( token.id );
+        tokens.put( token.id, token );
+    }
+
+    @Override
+    public void restore( Token token, long accessed ) {
+        final long idle = TimeUnit.MILLISECONDS.toNanos( Math.max( 0, System.currentTimeMillis() - accessed ) );
+
+        tokens.put( token.id, token );
+        restoredDeadlines.put( token.id, ticker.read() + expiration - idle );
+    }
+
+    @Override
+    public void invalidate( String tokenId ) {
+        tokens.invalidate( tokenId );
+    }
+
+    /**
+     * A read refreshes the token like any other, so its restored deadline no longer applies.
+     *
+     * @return whether the token was restored and has been idle for too long since
+     */
+    private boolean expireRestored( String tokenId ) {
+        final Long deadline = restoredDeadlines.remove( tokenId );
+        if( deadline == null || deadline - ticker.read() > 0 ) return false;
+
+        expired.increment();
+        tokens.invalidate( tokenId );
+
+        return true;
+    }
+
+    @Override
+    public long size() {
+        return tokens.size();
+    }
+
+    @Override
+    public long cleanUp() {
+        final long before = expired.sum();
+        final long now = ticker.read();
+        for( Map.Entry<String, Long> e : restoredDeadlines.entrySet() )
+            if( e.getValue() - now <= 0 && restoredDeadlines.remove( e.getKey(), e.getValue() ) ) {
+                expired.increment();
+                tokens.invalidate( e.getKey() );
+            }
+        tokens.cleanUp();
+
+        return expired.sum() - before;
+    }
+
+    @Override
+    public int expirationTime() {
+        return expirationTime;
+    }
+
+    @Override
+    public void onRemoval( Consumer<Token> listener ) {
+        this.removalListener = listener;
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        final CacheStats cacheStats = tokens.stats();
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "size", tokens.size() );
+        stats.put( "hits", cacheStats.hitCount() );
+        stats.put( "misses", cacheStats.missCount() );
+        stats.put( "evictions", evicted.sum() );
+        stats.put( "expired", expired.sum() );
+
+        return stats;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.security.LiveTokens;
+import oap.ws.security.TokenFilter;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link TokenFilter} of the ids {@link AuthService} has issued and not yet removed, plus a bounded, sequenced log
+ * of its changes that caching token services poll the same way as the {@link RevocationLog}.
+ * <p>
+ * A replica is always somewhat behind, and an id it hasn't seen yet would be rejected. So ids are generated
+ * {@code reserve} at a time ahead of use and added to the filter right away, which keeps replicas exact while fewer
+ * than {@code reserve} tokens are issued between two of their polls. Beyond that, and after a restart, replicas tell
+ * ids reserved since their last poll by the {@link LiveTokens#reservedId(long, long) position} in them and ask the
+ * server.
+ */
+public class LiveTokenFilter {
+
+    private final TokenFilter filter;
+    private final UnaryOperator<String> prefix;
+    private final ArrayDeque<String> reserved;
+    private final long[] changes;
+    private final long epoch = System.currentTimeMillis();
+    private final int reserve;
+    private long sequence;
+    private long issued;
+    private long generated;
+    private long added;
+    private long removed;
+
+    /**
+     * @param prefix   applied to every generated id, e.g. to add a shard prefix
+     * @param capacity number of changes kept for replicas to catch up with
+     */
+    public LiveTokenFilter( long expectedTokens, double falsePositiveRate, UnaryOperator<String> prefix, int reserve,
+                            int capacity ) {
+        this.filter = new TokenFilter( expectedTokens + reserve, falsePositiveRate );
+        this.prefix = prefix;
+        this.reserve = reserve;
+        this.reserved = new ArrayDeque<>( reserve );
+        this.changes = new long[capacity * 2];
+
+        for( int i = 0; i < reserve; i++ ) reserved.add( added( generate() ) );
+    }
+
+    /**
+     * @return an id that has been in the filter for at least {@code reserve} issues
+     */
+    public synchronized String nextId() {
+        reserved.add( added( generate() ) );
+        issued++;
+
+        return reserved.poll();
+    }
+
+    /**
+     * Adds an id that didn't come from {@link #nextId()}, e.g. that of a restored token.
+     */
+    public synchronized void add( String tokenId ) {
+        added( tokenId );
+    }
+
+    public synchronized void remove( String tokenId ) {
+        final long[] hash = TokenFilter.hash( tokenId );
+
+        filter.remove( hash[0], hash[1] );
+        append( hash, true );
+        removed++;
+    }
+
+    public synchronized LiveTokens since( long epoch, long since ) {
+        if( epoch != this.epoch || since > sequence || sequence - since > changes.length / 2 )
+            return new LiveTokens( this.epoch, sequence, filter.hashes(), filter.counters().clone(), null, null,
+                generated );
+
+        int removals = 0;
+        for( long s = since + 1; s <= sequence; s++ ) if( changes[slot( s )] < 0 ) removals++;
+
+        final long[] addedHashes = new long[( int ) ( sequence - since - removals ) * 2];
+        final long[] removedHashes = new long[removals * 2];
+        int a = 0;
+        int r = 0;
+        for( long s = since + 1; s <= sequence; s++ ) {
+            final int slot = slot( s );
+            if( changes[slot] < 0 ) {
+                removedHashes[r++] = changes[slot] & Long.MAX_VALUE;
+                removedHashes[r++] = changes[slot + 1];
+            } else {
+                addedHashes[a++] = changes[slot];
+                addedHashes[a++] = changes[slot + 1];
+            }
+        }
+
+        return new LiveTokens( this.epoch, sequence, filter.hashes(), null, addedHashes, removedHashes, generated );
+    }
+
+    public synchronized Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "live", added - removed - reserve );
+        stats.put( "reserved", reserve );
+        stats.put( "issued", issued );
+        stats.put( "sequence", sequence );
+        stats.put( "bytes", filter.counters().length );
+
+        return stats;
+    }
+
+    private String generate() {
+        return prefix.apply( LiveTokens.reservedId( epoch, ++generated ) );
+    }
+
+    private String added( String tokenId ) {
+        final long[] hash = TokenFilter.hash( tokenId );
+
+        filter.add( hash[0], hash[1] );
+        append( hash, false );
+        added++;
+
+        return tokenId;
+    }
+
+    /**
+     * The sign bit of {@code h1} marks removals; filters only use the other 63 bits of it.
+     */
+    private void append( long[] hash, boolean removal ) {
+        sequence++;
+        final int slot = slot( sequence );
+        changes[slot] = removal ? hash[0] | Long.MIN_VALUE : hash[0] & Long.MAX_VALUE;
+        changes[slot + 1] = hash[1];
+    }
+
+    private int slot( long sequence ) {
+        return ( int ) ( sequence % ( changes.length / 2 ) ) * 2;
+    }
+}
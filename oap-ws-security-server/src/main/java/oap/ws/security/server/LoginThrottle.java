@@ -0,0 +1,144 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control for {@link LoginWS}, applied before any password is hashed: a token bucket per email and per
+ * client address, plus a cap on logins in progress.
+ * <p>
+ * Buckets live in fixed arrays of {@code slots} packed longs (48 bits of refill time, 16 bits of tokens) addressed
+ * by key hash, so memory doesn't grow with the number of keys and idle keys expire by simply refilling. Keys that
+ * share a slot share a bucket, which can only make throttling stricter. A capacity or concurrency of {@code 0}
+ * disables that check.
+ */
+public class LoginThrottle {
+
+    private final TokenBuckets emails;
+    private final TokenBuckets clients;
+    private final Semaphore logins;
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder saturated = new LongAdder();
+
+    public LoginThrottle( int slots, int emailCapacity, int emailRefillPerMinute,
+                          int clientCapacity, int clientRefillPerMinute, int maxConcurrentLogins ) {
+        this.emails = emailCapacity > 0 ? new TokenBuckets( slots, emailCapacity, emailRefillPerMinute ) : null;
+        this.clients = clientCapacity > 0 ? new TokenBuckets( slots, clientCapacity, clientRefillPerMinute ) : null;
+        this.logins = maxConcurrentLogins > 0 ? new Semaphore( maxConcurrentLogins ) : null;
+    }
+
+    public static LoginThrottle unlimited() {
+        return new LoginThrottle( 0, 0, 0, 0, 0, 0 );
+    }
+
+    public boolean allow( String email, String client ) {
+        final long now = System.currentTimeMillis();
+        if( emails != null && email != null && !emails.tryAcquire( email, now )
+            || clients != null && client != null && !clients.tryAcquire( client, now ) ) {
+            throttled.increment();
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return false if too many logins are already in progress; otherwise the caller must {@link #exit()}
+     */
+    public boolean enter() {
+        if( logins == null || logins.tryAcquire() ) return true;
+
+        saturated.increment();
+
+        return false;
+    }
+
+    public void exit() {
+        if( logins != null ) logins.release();
+    }
+
+    public Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "throttled", throttled.sum() );
+        stats.put( "saturated", saturated.sum() );
+
+        return stats;
+    }
+
+    static class TokenBuckets {
+        private static final long TOKENS = 0xFFFF;
+        private static final long MINUTE = 60000;
+
+        private final AtomicLongArray slots;
+        private final long capacity;
+        private final long refillPerMinute;
+
+        TokenBuckets( int slots, int capacity, int refillPerMinute ) {
+            this.slots = new AtomicLongArray( Integer.highestOneBit( Math.max( slots - 1, 1 ) ) << 1 );
+            this.capacity = Math.min( capacity, TOKENS );
+            this.refillPerMinute = Math.max( refillPerMinute, 1 );
+        }
+
+        boolean tryAcquire( String key, long now ) {
+            final int slot = slot( key );
+
+            while( true ) {
+                final long state = slots.get( slot );
+
+                long refilled = state >>> 16;
+                long tokens = state & TOKENS;
+                if( state == 0 || now - refilled >= capacity * MINUTE / refillPerMinute ) {
+                    refilled = now;
+                    tokens = capacity;
+                } else {
+                    final long added = ( now - refilled ) * refillPerMinute / MINUTE;
+                    if( added > 0 ) {
+                        tokens = Math.min( capacity, tokens + added );
+                        refilled = tokens == capacity ? now : refilled + added * MINUTE / refillPerMinute;
+                    }
+                }
+
+                if( tokens == 0 ) return false;
+
+                if( slots.compareAndSet( slot, state, refilled << 16 | tokens - 1 ) ) return true;
+            }
+        }
+
+        private int slot( String key ) {
+            int h = key.hashCode();
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+
+            return h & ( slots.length() - 1 );
+        }
+    }
+}
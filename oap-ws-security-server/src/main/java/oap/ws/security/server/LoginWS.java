@@ -26,37 +26,87 @@ package oap.ws.security.server;
 
 import lombok.extern.slf4j.Slf4j;
 import oap.http.HttpResponse;
+import oap.http.Request;
 import oap.ws.WsMethod;
 import oap.ws.WsParam;
+import oap.ws.security.AuditEvent;
+import oap.ws.security.AuditLog;
 import oap.ws.security.Token;
+import org.apache.http.entity.ContentType;
 import org.joda.time.DateTime;
 
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
 import static oap.http.Request.HttpMethod.GET;
 import static oap.ws.WsParam.From.QUERY;
+import static oap.ws.WsParam.From.REQUEST;
 
 @Slf4j
 public class LoginWS {
 
-    private final AuthService authService;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private final AuthShard authService;
     private final String cookieDomain;
     private final int cookieExpiration;
+    private final LoginThrottle loginThrottle;
+    private final TokenResponses tokenResponses;
+    private final AuditLog auditLog;
+
+    public LoginWS( AuthShard authService, String cookieDomain, int cookieExpiration ) {
+        this( authService, cookieDomain, cookieExpiration, LoginThrottle.unlimited() );
+    }
+
+    public LoginWS( AuthShard authService, String cookieDomain, int cookieExpiration,
+                    LoginThrottle loginThrottle ) {
+        this( authService, cookieDomain, cookieExpiration, loginThrottle, new TokenResponses( 100000, 60 ) );
+    }
+
+    public LoginWS( AuthShard authService, String cookieDomain, int cookieExpiration,
+                    LoginThrottle loginThrottle, TokenResponses tokenResponses ) {
+        this( authService, cookieDomain, cookieExpiration, loginThrottle, tokenResponses, AuditLog.disabled() );
+    }
 
-    public LoginWS( AuthService authService, String cookieDomain, int cookieExpiration ) {
+    public LoginWS( AuthShard authService, String cookieDomain, int cookieExpiration,
+                    LoginThrottle loginThrottle, TokenResponses tokenResponses, AuditLog auditLog ) {
         this.authService = authService;
         this.cookieDomain = cookieDomain;
         this.cookieExpiration = cookieExpiration;
+        this.loginThrottle = loginThrottle;
+        this.tokenResponses = tokenResponses;
+        this.auditLog = auditLog;
     }
 
     @WsMethod( method = GET, path = "/" )
-    public HttpResponse login( @WsParam( from = QUERY ) String email, @WsParam( from = QUERY ) String password ) {
-        final Optional<Token> optionalToken = authService.generateToken( email, password );
+    public HttpResponse login( @WsParam( from = QUERY ) String email, @WsParam( from = QUERY ) String password,
+                               @WsParam( from = REQUEST ) Request request ) {
+        if( !loginThrottle.allow( email, request.ip ) ) {
+            log.debug( "Throttled login of [{}] from [{}]", email, request.ip );
+            auditLog.log( new AuditEvent( AuditEvent.Type.LOGIN_FAILED, email, null, request.ip ) );
+
+            return HttpResponse.status( HTTP_TOO_MANY_REQUESTS, "Too many login attempts" );
+        }
+
+        if( !loginThrottle.enter() ) return HttpResponse.status( HTTP_TOO_MANY_REQUESTS, "Too many logins in progress" );
+
+        final Optional<Token> optionalToken;
+        try {
+            optionalToken = authService.generateToken( email, password );
+        } catch( RejectedExecutionException e ) {
+            return HttpResponse.status( HTTP_TOO_MANY_REQUESTS, "Too many logins in progress" );
+        } finally {
+            loginThrottle.exit();
+        }
 
         if( optionalToken.isPresent() ) {
             final Token token = optionalToken.get();
-            return HttpResponse.ok( Converters.toTokenDTO( token ) ).withHeader( "Authorization", token.id )
+            auditLog.log( new AuditEvent( AuditEvent.Type.LOGIN, email, null, request.ip ) );
+            final TokenResponses.Rendered rendered = tokenResponses.render( token );
+            return HttpResponse.ok( rendered.json, true, ContentType.APPLICATION_JSON )
+                .withHeader( "Authorization", token.id )
+                .withHeader( "ETag", rendered.etag )
                 .withCookie( new HttpResponse.CookieBuilder()
                     .withCustomValue( "Authorization", token.id )
                     .withDomain( cookieDomain )
@@ -65,6 +115,8 @@ public class LoginWS {
                     .build()
                 );
         } else {
+            auditLog.log( new AuditEvent( AuditEvent.Type.LOGIN_FAILED, email, null, request.ip ) );
+
             return HttpResponse.status( HTTP_UNAUTHORIZED, "Username or password is invalid" );
         }
     }
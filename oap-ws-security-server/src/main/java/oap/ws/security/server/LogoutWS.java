@@ -3,6 +3,8 @@ package oap.ws.security.server;
 import lombok.extern.slf4j.Slf4j;
 import oap.ws.WsMethod;
 import oap.ws.WsParam;
+import oap.ws.security.AuditEvent;
+import oap.ws.security.AuditLog;
 import oap.ws.security.Role;
 import oap.ws.security.User;
 import oap.ws.security.WsSecurity;
@@ -20,10 +22,16 @@ import static oap.ws.WsParam.From.SESSION;
 @Slf4j
 public class LogoutWS {
 
-    private final AuthService authService;
+    private final AuthShard authService;
+    private final AuditLog auditLog;
 
-    public LogoutWS( AuthService authService ) {
+    public LogoutWS( AuthShard authService ) {
+        this( authService, AuditLog.disabled() );
+    }
+
+    public LogoutWS( AuthShard authService, AuditLog auditLog ) {
         this.authService = authService;
+        this.auditLog = auditLog;
     }
 
     @WsMethod( method = DELETE, path = "/" )
@@ -33,6 +41,7 @@ public class LogoutWS {
         log.debug( "Invalidating token for user [{}]", email );
 
         authService.invalidateUser( email );
+        auditLog.log( new AuditEvent( AuditEvent.Type.LOGOUT, user.email, email, null ) );
     }
 
     @SuppressWarnings( "unused" )
@@ -0,0 +1,505 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.security.Token;
+import oap.ws.security.User;
+import org.joda.time.DateTime;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * {@link TokenStore} that keeps tokens outside the Java heap, so millions of sessions do not end up in old-gen.
+ * <p>
+ * Every token is a fixed-size record (id, created, expires, last access and the owner's email) in one of
+ * {@value #SEGMENTS} open-addressing tables, each a direct buffer guarded by its own lock. Records are keyed by
+ * the 128-bit value of the token id and its {@link Shards shard prefix}, so only the UUID ids issued by an
+ * {@link AuthService} without a signing key can be stored. {@link Token}s are built on read around the user's
+ * {@link UserStorage#principal(String) principal}; a token whose user has been deleted is dropped.
+ * <p>
+ * Like {@link HeapTokenStore}, entries expire {@code expirationTime} minutes after their last access; they are
+ * purged by {@link #cleanUp()}, which the {@link TokenSweeper} runs periodically. When a segment is full, one of
+ * the next {@value #EVICTION_SAMPLE} entries after a clock hand is evicted: an expired one if there is any, else
+ * the one idle for longest. So roughly {@code capacity} tokens fit and a put never scans a whole segment.
+ */
+public class OffHeapTokenStore implements TokenStore {
+
+    static final int SEGMENTS = 64;
+    static final int EMAIL_BYTES = 260;
+    static final int EVICTION_SAMPLE = 8;
+
+    private static final int ID_HIGH = 0;
+    private static final int ID_LOW = 8;
+    private static final int CREATED = 16;
+    private static final int EXPIRES = 24;
+    private static final int ACCESSED = 32;
+    private static final int SHARD = 40;
+    private static final int EMAIL_LENGTH = 42;
+    private static final int EMAIL = 44;
+    static final int RECORD = EMAIL + EMAIL_BYTES;
+
+    private final UserStorage userStorage;
+    private final int expirationTime;
+    private final long expiration;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private volatile Consumer<Token> removalListener = token -> {
+    };
+
+    /**
+     * @param capacity number of tokens to reserve memory for, about {@value #RECORD} bytes each plus a quarter
+     *                 for the tables' free slots
+     */
+    public OffHeapTokenStore( UserStorage userStorage, int expirationTime, int capacity ) {
+        this.userStorage = userStorage;
+        this.expirationTime = expirationTime;
+        this.expiration = TimeUnit.MINUTES.toMillis( expirationTime );
+
+        final int maxSize = Math.max( 1, ( capacity + SEGMENTS - 1 ) / SEGMENTS );
+        final int slots = Integer.highestOneBit( maxSize + maxSize / 3 ) << 1;
+        if( ( long ) slots * RECORD > Integer.MAX_VALUE )
+            throw new IllegalArgumentException( "capacity " + capacity + " is too large" );
+
+        for( int i = 0; i < SEGMENTS; i++ ) segments[i] = new Segment( slots, maxSize );
+    }
+
+    @Override
+    public Optional<Token> get( String tokenId ) {
+        final int start = uuidStart( tokenId );
+        if( start < 0 ) {
+            misses.increment();
+
+            return Optional.empty();
+        }
+
+        final int shard = start > 0 ? Shards.shardOf( tokenId ) : -1;
+        final long high = high( tokenId, start );
+        final long low = low( tokenId, start );
+        final long hash = hash( high, low );
+        final Entry entry = segment( hash ).get( shard, high, low, hash, System.currentTimeMillis() );
+
+        if( entry == null ) {
+            misses.increment();
+
+            return Optional.empty();
+        }
+
+        if( entry.expired ) {
+            misses.increment();
+            removed( entry );
+
+            return Optional.empty();
+        }
+
+        final Optional<User> user = userStorage.principal( entry.email );
+        if( !user.isPresent() ) {
+            misses.increment();
+            final Entry removed = segment( hash ).remove( shard, high, low, hash );
+            if( removed != null ) removed( removed );
+
+            return Optional.empty();
+        }
+
+        hits.increment();
+
+        return Optional.of( token( tokenId, entry, user.get() ) );
+    }
+
+    @Override
+    public Map<String, Token> getAll( Collection<String> tokenIds ) {
+        final Map<String, Token> tokens = new HashMap<>();
+
+        for( String tokenId : tokenIds ) get( tokenId ).ifPresent( token -> tokens.put( tokenId, token ) );
+
+        return tokens;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the token id is not a UUID or the email is longer than
+     *                                  {@value #EMAIL_BYTES} bytes
+     */
+    @Override
+    public void put( Token token ) {
+        restore( token, System.currentTimeMillis() );
+    }
+
+    @Override
+    public void restore( Token token, long accessed ) {
+        final int start = uuidStart( token.id );
+        if( start < 0 )
+            throw new IllegalArgumentException( "off-heap token store only holds UUID token ids: " + token.id );
+        final byte[] email = token.user.email.getBytes( StandardCharsets.UTF_8 );
+        if( email.length > EMAIL_BYTES )
+            throw new IllegalArgumentException( "email is longer than " + EMAIL_BYTES + " bytes: " + token.user.email );
+
+        final int shard = start > 0 ? Shards.shardOf( token.id ) : -1;
+        final long high = high( token.id, start );
+        final long low = low( token.id, start );
+        final long hash = hash( high, low );
+        final List<Entry> removed = segment( hash ).put( shard, high, low, hash,
+            token.created.getMillis(), token.expires != null ? token.expires.getMillis() : 0,
+            email, accessed, System.currentTimeMillis() );
+
+        for( Entry entry : removed ) removed( entry );
+    }
+
+    @Override
+    public void invalidate( String tokenId ) {
+        final int start = uuidStart( tokenId );
+        if( start < 0 ) return;
+
+        final int shard = start > 0 ? Shards.shardOf( tokenId ) : -1;
+        final long high = high( tokenId, start );
+        final long low = low( tokenId, start );
+        final long hash = hash( high, low );
+        final Entry entry = segment( hash ).remove( shard, high, low, hash );
+
+        if( entry != null ) removed( entry );
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for( Segment segment : segments ) size += segment.size();
+
+        return size;
+    }
+
+    @Override
+    public long cleanUp() {
+        final long now = System.currentTimeMillis();
+        long freed = 0;
+
+        for( Segment segment : segments ) {
+            final List<Entry> purged = segment.purge( now );
+            freed += purged.size();
+            for( Entry entry : purged ) removed( entry );
+        }
+
+        return freed;
+    }
+
+    @Override
+    public int expirationTime() {
+        return expirationTime;
+    }
+
+    @Override
+    public void onRemoval( Consumer<Token> listener ) {
+        this.removalListener = listener;
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "size", size() );
+        stats.put( "hits", hits.sum() );
+        stats.put( "misses", misses.sum() );
+        stats.put( "evictions", evictions.sum() );
+        stats.put( "expired", expired.sum() );
+        stats.put( "offHeapBytes", ( ( long ) segments[0].mask + 1 ) * RECORD * SEGMENTS );
+
+        return stats;
+    }
+
+    private void removed( Entry entry ) {
+        if( entry.expired ) expired.increment();
+
+        final String tokenId = Shards.prefix( entry.shard, new UUID( entry.high, entry.low ).toString() );
+        final User user = userStorage.principal( entry.email ).orElseGet( () -> {
+            final User deleted = new User();
+            deleted.email = entry.email;
+
+            return deleted;
+        } );
+
+        removalListener.accept( token( tokenId, entry, user ) );
+    }
+
+    private static Token token( String tokenId, Entry entry, User user ) {
+        final Token token = new Token();
+        token.id = tokenId;
+        token.user = user;
+        token.created = new DateTime( entry.created );
+        if( entry.expires != 0 ) token.expires = new DateTime( entry.expires );
+
+        return token;
+    }
+
+    private Segment segment( long hash ) {
+        return segments[( int ) ( hash >>> 58 )];
+    }
+
+    private static long hash( long high, long low ) {
+        final long hash = ( high ^ Long.rotateLeft( low, 32 ) ) * 0x9E3779B97F4A7C15L;
+
+        return hash ^ ( hash >>> 29 );
+    }
+
+    /**
+     * Only the canonical (lower case) form {@link UUID#toString()} produces is accepted, so every token has exactly
+     * one valid id.
+     *
+     * @return where the UUID starts, after the optional shard prefix, or {@code -1} if the id is not storable
+     */
+    static int uuidStart( String id ) {
+        if( id == null ) return -1;
+
+        final int start = id.length() - 36;
+        if( start < 0 || start > 0 && ( Shards.shardOf( id ) < 0 || id.indexOf( Shards.SEPARATOR ) != start - 1 ) )
+            return -1;
+
+        for( int i = 0; i < 36; i++ ) {
+            final char c = id.charAt( start + i );
+            if( i == 8 || i == 13 || i == 18 || i == 23 ) {
+                if( c != '-' ) return -1;
+            } else if( !( c >= '0' && c <= '9' || c >= 'a' && c <= 'f' ) ) return -1;
+        }
+
+        return start;
+    }
+
+    private static long high( String id, int start ) {
+        return hex( id, start, 8 ) << 32 | hex( id, start + 9, 4 ) << 16 | hex( id, start + 14, 4 );
+    }
+
+    private static long low( String id, int start ) {
+        return hex( id, start + 19, 4 ) << 48 | hex( id, start + 24, 12 );
+    }
+
+    private static long hex( String id, int from, int length ) {
+        long value = 0;
+        for( int i = from; i < from + length; i++ ) value = value << 4 | Character.digit( id.charAt( i ), 16 );
+
+        return value;
+    }
+
+    private static final class Entry {
+        final int shard;
+        final long high;
+        final long low;
+        final long created;
+        final long expires;
+        final String email;
+        final boolean expired;
+
+        Entry( int shard, long high, long low, long created, long expires, String email, boolean expired ) {
+            this.shard = shard;
+            this.high = high;
+            this.low = low;
+            this.created = created;
+            this.expires = expires;
+            this.email = email;
+            this.expired = expired;
+        }
+    }
+
+    /**
+     * Linear probing table; removals shift the rest of the cluster back instead of leaving tombstones. A record
+     * with a zero email length is a free slot.
+     */
+    private final class Segment {
+        private final ByteBuffer records;
+        private final int mask;
+        private final int maxSize;
+        private int size;
+        private int hand;
+
+        Segment( int slots, int maxSize ) {
+            this.records = ByteBuffer.allocateDirect( slots * RECORD );
+            this.mask = slots - 1;
+            this.maxSize = maxSize;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized Entry get( int shard, long high, long low, long hash, long now ) {
+            final int slot = find( shard, high, low, hash );
+            if( slot < 0 ) return null;
+
+            if( expired( slot, now ) ) {
+                final Entry entry = entry( slot, true );
+                delete( slot );
+
+                return entry;
+            }
+
+            records.putLong( offset( slot ) + ACCESSED, now );
+
+            return entry( slot, false );
+        }
+
+        synchronized List<Entry> put( int shard, long high, long low, long hash, long created, long expires,
+                                      byte[] email, long accessed, long now ) {
+            int slot = find( shard, high, low, hash );
+            List<Entry> removed = Collections.emptyList();
+
+            if( slot < 0 ) {
+                if( size >= maxSize ) {
+                    final int victim = victim( now );
+                    final boolean expired = expired( victim, now );
+                    removed = Collections.singletonList( entry( victim, expired ) );
+                    delete( victim );
+                    if( !expired ) evictions.increment();
+                }
+
+                slot = ( int ) hash & mask;
+                while( emailLength( slot ) != 0 ) slot = ( slot + 1 ) & mask;
+                size++;
+            }
+
+            final int offset = offset( slot );
+            records.putLong( offset + ID_HIGH, high );
+            records.putLong( offset + ID_LOW, low );
+            records.putLong( offset + CREATED, created );
+            records.putLong( offset + EXPIRES, expires );
+            records.putLong( offset + ACCESSED, accessed );
+            records.putShort( offset + SHARD, ( short ) shard );
+            records.putShort( offset + EMAIL_LENGTH, ( short ) email.length );
+            for( int i = 0; i < email.length; i++ ) records.put( offset + EMAIL + i, email[i] );
+
+            return removed;
+        }
+
+        synchronized Entry remove( int shard, long high, long low, long hash ) {
+            final int slot = find( shard, high, low, hash );
+            if( slot < 0 ) return null;
+
+            final Entry entry = entry( slot, false );
+            delete( slot );
+
+            return entry;
+        }
+
+        synchronized List<Entry> purge( long now ) {
+            List<Entry> removed = Collections.emptyList();
+
+            for( int slot = 0; slot <= mask; ) {
+                if( emailLength( slot ) != 0 && expired( slot, now ) ) {
+                    if( removed.isEmpty() ) removed = new ArrayList<>();
+                    removed.add( entry( slot, true ) );
+                    delete( slot );
+                } else slot++;
+            }
+
+            return removed;
+        }
+
+        private int find( int shard, long high, long low, long hash ) {
+            for( int slot = ( int ) hash & mask; emailLength( slot ) != 0; slot = ( slot + 1 ) & mask ) {
+                final int offset = offset( slot );
+                if( records.getLong( offset + ID_HIGH ) == high && records.getLong( offset + ID_LOW ) == low
+                    && records.getShort( offset + SHARD ) == shard ) return slot;
+            }
+
+            return -1;
+        }
+
+        /**
+         * Only called on a full segment, so the hand passes few free slots before it has sampled enough entries.
+         */
+        private int victim( long now ) {
+            int victim = -1;
+            long victimAccess = Long.MAX_VALUE;
+
+            for( int scanned = 0, sampled = 0; scanned <= mask && sampled < EVICTION_SAMPLE; scanned++ ) {
+                final int slot = hand;
+                hand = ( hand + 1 ) & mask;
+                if( emailLength( slot ) == 0 ) continue;
+
+                sampled++;
+                if( expired( slot, now ) ) return slot;
+
+                final long accessed = records.getLong( offset( slot ) + ACCESSED );
+                if( accessed < victimAccess ) {
+                    victim = slot;
+                    victimAccess = accessed;
+                }
+            }
+
+            return victim;
+        }
+
+        private void delete( int slot ) {
+            int hole = slot;
+
+            for( int next = ( slot + 1 ) & mask; emailLength( next ) != 0; next = ( next + 1 ) & mask ) {
+                final int offset = offset( next );
+                final int home = ( int ) hash( records.getLong( offset + ID_HIGH ), records.getLong( offset + ID_LOW ) )
+                    & mask;
+
+                final boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+                if( stays ) continue;
+
+                final int target = offset( hole );
+                for( int i = 0; i < RECORD; i += 8 ) records.putLong( target + i, records.getLong( offset + i ) );
+                hole = next;
+            }
+
+            records.putShort( offset( hole ) + EMAIL_LENGTH, ( short ) 0 );
+            size--;
+        }
+
+        private boolean expired( int slot, long now ) {
+            return now - records.getLong( offset( slot ) + ACCESSED ) >= expiration;
+        }
+
+        private int emailLength( int slot ) {
+            return records.getShort( offset( slot ) + EMAIL_LENGTH );
+        }
+
+        private Entry entry( int slot, boolean expired ) {
+            final int offset = offset( slot );
+            final byte[] email = new byte[emailLength( slot )];
+            for( int i = 0; i < email.length; i++ ) email[i] = records.get( offset + EMAIL + i );
+
+            return new Entry( records.getShort( offset + SHARD ), records.getLong( offset + ID_HIGH ), records.getLong( offset + ID_LOW ),
+                records.getLong( offset + CREATED ), records.getLong( offset + EXPIRES ),
+                new String( email, StandardCharsets.UTF_8 ), expired );
+        }
+
+        private int offset( int slot ) {
+            return slot * RECORD;
+        }
+    }
+}
@@ -21,17 +21,34 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
  * SOFTWARE.
  */
-
 package oap.ws.security.server;
 
-import oap.storage.FileStorage;
 import oap.ws.security.Organization;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 
-public class OrganizationStorage extends FileStorage<Organization> {
+public class OrganizationStorage extends SnapshotStorage<Organization> {
 
     public OrganizationStorage( Path path ) {
         super( path, organization -> organization.id );
     }
+
+    @Override
+    protected void write( Organization organization, DataOutputStream out ) throws IOException {
+        writeString( out, organization.id );
+        writeString( out, organization.name );
+        writeString( out, organization.description );
+    }
+
+    @Override
+    protected Organization read( ByteBuffer in ) {
+        final Organization organization = new Organization( readString( in ) );
+        organization.name = readString( in );
+        organization.description = readString( in );
+
+        return organization;
+    }
 }
@@ -25,9 +25,11 @@
 package oap.ws.security.server;
 
 import lombok.extern.slf4j.Slf4j;
-import oap.util.Hash;
+import oap.http.HttpResponse;
 import oap.ws.WsMethod;
 import oap.ws.WsParam;
+import oap.ws.security.AuditEvent;
+import oap.ws.security.AuditLog;
 import oap.ws.security.Organization;
 import oap.ws.security.OrganizationAwareWS;
 import oap.ws.security.Role;
@@ -35,9 +37,12 @@ import oap.ws.security.User;
 import oap.ws.security.WsSecurity;
 import oap.ws.validate.ValidationErrors;
 import oap.ws.validate.WsValidate;
+import org.apache.http.entity.ContentType;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 import static java.net.HttpURLConnection.HTTP_FORBIDDEN;
 import static oap.http.Request.HttpMethod.DELETE;
@@ -45,29 +50,69 @@ import static oap.http.Request.HttpMethod.GET;
 import static oap.http.Request.HttpMethod.POST;
 import static oap.ws.WsParam.From.BODY;
 import static oap.ws.WsParam.From.PATH;
+import static oap.ws.WsParam.From.QUERY;
 import static oap.ws.WsParam.From.SESSION;
 import static oap.ws.security.Role.ADMIN;
 
 @Slf4j
 public class OrganizationWS implements OrganizationWSI, OrganizationAwareWS {
 
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
     private final OrganizationStorage organizationStorage;
     private final UserStorage userStorage;
-    private final String salt;
+    private final PasswordHasher passwordHasher;
+    private final AuditLog auditLog;
+    private final AuthService authService;
+    private final AuthShard userShards;
 
     public OrganizationWS( OrganizationStorage organizationStorage, UserStorage userStorage, String salt ) {
+        this( organizationStorage, userStorage, new Pbkdf2PasswordHasher( salt, 10000 ) );
+    }
+
+    public OrganizationWS( OrganizationStorage organizationStorage, UserStorage userStorage,
+                           PasswordHasher passwordHasher ) {
+        this( organizationStorage, userStorage, passwordHasher, AuditLog.disabled() );
+    }
+
+    public OrganizationWS( OrganizationStorage organizationStorage, UserStorage userStorage,
+                           PasswordHasher passwordHasher, AuditLog auditLog ) {
+        this( organizationStorage, userStorage, passwordHasher, auditLog, null );
+    }
+
+    /**
+     * @param authService if set, passwords are hashed on its bounded hashing pool rather than on the request
+     *                    thread, and requests it has no room for are answered with 429
+     */
+    public OrganizationWS( OrganizationStorage organizationStorage, UserStorage userStorage,
+                           PasswordHasher passwordHasher, AuditLog auditLog, AuthService authService ) {
+        this( organizationStorage, userStorage, passwordHasher, auditLog, authService, null );
+    }
+
+    /**
+     * @param userShards in a sharded deployment the {@link ShardRouter}, so that users are stored on their home
+     *                   shard rather than only in this node's {@code userStorage}
+     */
+    public OrganizationWS( OrganizationStorage organizationStorage, UserStorage userStorage,
+                           PasswordHasher passwordHasher, AuditLog auditLog, AuthService authService,
+                           AuthShard userShards ) {
         this.organizationStorage = organizationStorage;
         this.userStorage = userStorage;
-        this.salt = salt;
+        this.passwordHasher = passwordHasher;
+        this.auditLog = auditLog;
+        this.authService = authService;
+        this.userShards = userShards;
     }
 
     @WsMethod( method = POST, path = "/store" )
     @WsSecurity( role = ADMIN )
     @Override
-    public Organization store( @WsParam( from = BODY ) Organization organization ) {
+    public Organization store( @WsParam( from = BODY ) Organization organization,
+                               @WsParam( from = SESSION ) User user ) {
         log.debug( "Storing organization: [{}]", organization );
 
         organizationStorage.store( organization );
+        auditLog.log( new AuditEvent( AuditEvent.Type.ORGANIZATION_STORED, actor( user ), organization.id, null ) );
 
         return organization;
     }
@@ -75,10 +120,13 @@ public class OrganizationWS implements OrganizationWSI, OrganizationAwareWS {
     @WsMethod( method = GET, path = "/" )
     @WsSecurity( role = ADMIN )
     @Override
-    public List<Organization> list() {
-        log.debug( "Fetching all organizations" );
+    public HttpResponse list( @WsParam( from = QUERY ) Optional<Integer> limit,
+                              @WsParam( from = QUERY ) Optional<String> cursor,
+                              @WsParam( from = QUERY ) Optional<Boolean> stream ) {
+        log.debug( "Fetching organizations, limit [{}]", limit );
 
-        return organizationStorage.select().toList();
+        return Pagination.respond( organizationStorage.select(), organization -> organization.id,
+            limit, cursor, stream );
     }
 
     @WsMethod( method = GET, path = "/{organizationId}" )
@@ -92,8 +140,9 @@ public class OrganizationWS implements OrganizationWSI, OrganizationAwareWS {
 
     @WsMethod( method = DELETE, path = "/{organizationId}" )
     @WsSecurity( role = ADMIN )
-    public void delete( @WsParam( from = PATH ) String organizationId ) {
+    public void delete( @WsParam( from = PATH ) String organizationId, @WsParam( from = SESSION ) User user ) {
         organizationStorage.delete( organizationId );
+        auditLog.log( new AuditEvent( AuditEvent.Type.ORGANIZATION_DELETED, actor( user ), organizationId, null ) );
 
         log.debug( "Organization [{}] deleted", organizationId );
     }
@@ -101,28 +150,60 @@ public class OrganizationWS implements OrganizationWSI, OrganizationAwareWS {
     @WsMethod( method = GET, path = "/{organizationId}/users" )
     @WsSecurity( role = ADMIN )
     @Override
-    public List<User> users( @WsParam( from = PATH ) String organizationId ) {
-        log.debug( "Fetching all users for organization [{}]", organizationId );
+    public HttpResponse users( @WsParam( from = PATH ) String organizationId,
+                               @WsParam( from = QUERY ) Optional<Integer> limit,
+                               @WsParam( from = QUERY ) Optional<String> cursor,
+                               @WsParam( from = QUERY ) Optional<Boolean> stream ) {
+        log.debug( "Fetching users for organization [{}], limit [{}]", organizationId, limit );
 
-        return userStorage.select()
-            .filter( user -> user.organizationId.equals( organizationId ) )
-            .map( Converters::toUserDTO )
-            .toList();
+        return Pagination.respond( userStorage.selectByOrganization( organizationId )
+            .stream()
+            .map( Converters::toUserDTO ), user -> user.email, limit, cursor, stream );
     }
 
     @WsMethod( method = POST, path = "/{organizationId}/users/store" )
     @WsSecurity( role = Role.USER )
     @WsValidate( { "validateOrganizationAccess", "validateUserAccess", "validateUserPrecedence", "validateUserCreationRole" } )
     @Override
-    public User userStore( @WsParam( from = BODY ) User storeUser, @WsParam( from = PATH ) String organizationId,
-                           @WsParam( from = SESSION ) User user ) {
-
-        storeUser.password = Hash.sha256( salt, storeUser.password );
-        userStorage.store( storeUser );
+    public HttpResponse userStore( @WsParam( from = BODY ) User storeUser,
+                                   @WsParam( from = PATH ) String organizationId,
+                                   @WsParam( from = SESSION ) User user ) {
+        try {
+            hashPasswords( Collections.singletonList( storeUser ) );
+        } catch( RejectedExecutionException e ) {
+            return HttpResponse.status( HTTP_TOO_MANY_REQUESTS, "Too many password changes in progress" );
+        }
+        storeUsers( Collections.singletonList( storeUser ) );
+        auditLog.log( new AuditEvent( AuditEvent.Type.USER_STORED, actor( user ), storeUser.email, null ) );
 
         log.debug( "New information about user " + storeUser.email + " was successfully added" );
 
-        return Converters.toUserDTO( storeUser );
+        return HttpResponse.ok( Converters.toUserDTO( storeUser ), false, ContentType.APPLICATION_JSON );
+    }
+
+    @WsMethod( method = POST, path = "/{organizationId}/users" )
+    @WsSecurity( role = Role.ORGANIZATION_ADMIN )
+    @WsValidate( { "validateOrganizationAccess" } )
+    @Override
+    public HttpResponse usersImport( @WsParam( from = BODY ) String users,
+                                     @WsParam( from = PATH ) String organizationId,
+                                     @WsParam( from = SESSION ) User user ) {
+        try {
+            return HttpResponse.ok( importUsers( users, organizationId, user ), false, ContentType.APPLICATION_JSON );
+        } catch( RejectedExecutionException e ) {
+            return HttpResponse.status( HTTP_TOO_MANY_REQUESTS, "Too many password changes in progress" );
+        }
+    }
+
+    ImportResult importUsers( String users, String organizationId, User user ) {
+        final ImportResult result = UserImport.importUsers( users, organizationId, user, userStorage,
+            this::hashPasswords, this::storeUsers );
+        auditLog.log( new AuditEvent( AuditEvent.Type.USER_IMPORTED, actor( user ), organizationId, null ) );
+
+        log.debug( "Imported {} users into organization [{}], {} rejected", result.stored, organizationId,
+            result.errors.size() );
+
+        return result;
     }
 
     @WsMethod( method = GET, path = "/{organizationId}/users/{email}" )
@@ -141,11 +222,30 @@ public class OrganizationWS implements OrganizationWSI, OrganizationAwareWS {
     @Override
     public void userDelete( @WsParam( from = PATH ) String organizationId, @WsParam( from = PATH ) String email,
                             @WsParam( from = SESSION ) User user ) {
-        userStorage.delete( email );
+        if( userShards != null ) userShards.deleteUser( email );
+        else userStorage.delete( email );
+        auditLog.log( new AuditEvent( AuditEvent.Type.USER_DELETED, actor( user ), email, null ) );
 
         log.debug( "User [{}] deleted", email );
     }
 
+    /**
+     * The session user is missing when the service is exposed without sessions, e.g. to trusted callers only.
+     */
+    private static String actor( User user ) {
+        return user != null ? user.email : null;
+    }
+
+    private void hashPasswords( List<User> users ) {
+        if( authService != null ) authService.hashPasswords( users );
+        else users.forEach( u -> u.password = passwordHasher.hash( u.password ) );
+    }
+
+    private void storeUsers( List<User> users ) {
+        if( userShards != null ) userShards.storeUsers( users );
+        else userStorage.store( users );
+    }
+
     @SuppressWarnings( "unused" )
     public ValidationErrors validateUserAccess( String organizationId, User storeUser ) {
         return validateUserAccessById( organizationId, storeUser.email );
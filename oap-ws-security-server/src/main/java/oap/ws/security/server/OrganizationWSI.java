@@ -1,24 +1,27 @@
 package oap.ws.security.server;
 
+import oap.http.HttpResponse;
 import oap.ws.security.Organization;
 import oap.ws.security.User;
 
-import java.util.List;
 import java.util.Optional;
 
 interface OrganizationWSI {
 
-    Organization store( Organization organization );
+    Organization store( Organization organization, User user );
 
-    List<Organization> list();
+    HttpResponse list( Optional<Integer> limit, Optional<String> cursor, Optional<Boolean> stream );
 
     Optional<Organization> organization( String organizationId, User user );
 
-    void delete( String organizationId );
+    void delete( String organizationId, User user );
 
-    List<User> users( String organizationId );
+    HttpResponse users( String organizationId, Optional<Integer> limit, Optional<String> cursor,
+                        Optional<Boolean> stream );
 
-    User userStore( User storeUser, String organizationId, User user );
+    HttpResponse userStore( User storeUser, String organizationId, User user );
+
+    HttpResponse usersImport( String users, String organizationId, User user );
 
     Optional<User> user( String organizatinoId, String email, User user );
 
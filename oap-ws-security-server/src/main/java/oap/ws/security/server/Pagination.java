@@ -0,0 +1,112 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import com.google.common.collect.Ordering;
+import oap.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static java.net.HttpURLConnection.HTTP_BAD_REQUEST;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keyset pagination over unordered storages: a page holds the {@code limit} items with the smallest keys after
+ * the cursor, found in one pass with O(limit) memory. The cursor is the opaque, encoded key of the page's last
+ * item and is returned in the {@value #NEXT_CURSOR} header while more items remain.
+ */
+public final class Pagination {
+
+    public static final String NEXT_CURSOR = "X-Next-Cursor";
+
+    private Pagination() {
+    }
+
+    /**
+     * Without {@code limit} the whole result is returned as before, or streamed item by item if {@code stream}
+     * is set, so large exports are never fully buffered.
+     */
+    public static <T> HttpResponse respond( Stream<T> items, Function<T, String> key, Optional<Integer> limit,
+                                            Optional<String> cursor, Optional<Boolean> stream ) {
+        if( limit.isPresent() ) {
+            if( limit.get() <= 0 ) return HttpResponse.status( HTTP_BAD_REQUEST, "limit must be positive" );
+
+            final Optional<String> after;
+            try {
+                after = cursor.map( Pagination::decode );
+            } catch( IllegalArgumentException e ) {
+                return HttpResponse.status( HTTP_BAD_REQUEST, "invalid cursor" );
+            }
+
+            final Page<T> page = page( items, key, limit.get(), after );
+            final HttpResponse response = HttpResponse.ok( page.items );
+
+            return page.next.map( next -> response.withHeader( NEXT_CURSOR, next ) ).orElse( response );
+        }
+
+        if( stream.orElse( false ) ) return HttpResponse.stream( items, false, ContentType.APPLICATION_JSON );
+
+        return HttpResponse.ok( items.collect( toList() ) );
+    }
+
+    public static <T> Page<T> page( Stream<T> items, Function<T, String> key, int limit, Optional<String> after ) {
+        final Stream<T> remaining = after.isPresent()
+            ? items.filter( item -> key.apply( item ).compareTo( after.get() ) > 0 )
+            : items;
+
+        final List<T> least = Ordering.from( Comparator.comparing( key ) ).leastOf( remaining.iterator(), limit + 1 );
+
+        if( least.size() <= limit ) return new Page<>( least, Optional.empty() );
+
+        final List<T> pageItems = least.subList( 0, limit );
+
+        return new Page<>( pageItems, Optional.of( encode( key.apply( pageItems.get( limit - 1 ) ) ) ) );
+    }
+
+    static String encode( String key ) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString( key.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    static String decode( String cursor ) {
+        return new String( Base64.getUrlDecoder().decode( cursor ), StandardCharsets.UTF_8 );
+    }
+
+    public static class Page<T> {
+        public final List<T> items;
+        public final Optional<String> next;
+
+        public Page( List<T> items, Optional<String> next ) {
+            this.items = items;
+            this.next = next;
+        }
+    }
+}
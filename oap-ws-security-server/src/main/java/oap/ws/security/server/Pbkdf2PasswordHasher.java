@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.util.Hash;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * PBKDF2-HMAC-SHA256 with a random per-user salt, encoded as {@code pbkdf2-sha256$iterations$salt$hash}.
+ * Hashes without that prefix are legacy {@code sha256( salt, password )} values; they still match and are reported
+ * by {@link #needsRehash(String)}, as are hashes made with fewer than {@code iterations}.
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 256;
+
+    private final SecureRandom random = new SecureRandom();
+    private final String salt;
+    private final int iterations;
+
+    /**
+     * @param salt global salt of legacy hashes
+     */
+    public Pbkdf2PasswordHasher( String salt, int iterations ) {
+        this.salt = salt;
+        this.iterations = iterations;
+    }
+
+    @Override
+    public String hash( String password ) {
+        final byte[] userSalt = new byte[SALT_LENGTH];
+        random.nextBytes( userSalt );
+
+        final Base64.Encoder encoder = Base64.getEncoder();
+
+        return PREFIX + iterations + "$" + encoder.encodeToString( userSalt )
+            + "$" + encoder.encodeToString( pbkdf2( password, userSalt, iterations ) );
+    }
+
+    @Override
+    public boolean matches( String password, String encoded ) {
+        if( !encoded.startsWith( PREFIX ) ) return Objects.equals( Hash.sha256( salt, password ), encoded );
+
+        final String[] parts = encoded.split( "\\$" );
+        if( parts.length != 4 ) return false;
+
+        final Base64.Decoder decoder = Base64.getDecoder();
+        final byte[] expected = decoder.decode( parts[3] );
+
+        return MessageDigest.isEqual( pbkdf2( password, decoder.decode( parts[2] ), Integer.parseInt( parts[1] ) ),
+            expected );
+    }
+
+    @Override
+    public boolean needsRehash( String encoded ) {
+        if( !encoded.startsWith( PREFIX ) ) return true;
+
+        final int start = PREFIX.length();
+
+        return Integer.parseInt( encoded.substring( start, encoded.indexOf( '$', start ) ) ) < iterations;
+    }
+
+    private static byte[] pbkdf2( String password, byte[] salt, int iterations ) {
+        final PBEKeySpec spec = new PBEKeySpec( password.toCharArray(), salt, iterations, KEY_LENGTH );
+        try {
+            return SecretKeyFactory.getInstance( ALGORITHM ).generateSecret( spec ).getEncoded();
+        } catch( GeneralSecurityException e ) {
+            throw new IllegalStateException( e );
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.security.Revocations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bounded, sequenced log of revoked token ids. Caching token services poll it with the last sequence they have
+ * seen and receive only the delta; a client that fell behind by more than {@code capacity} entries, or that
+ * talks to a restarted server (different {@code epoch}), is told to drop its whole cache.
+ */
+public class RevocationLog {
+
+    private final String[] tokenIds;
+    private final long epoch = System.currentTimeMillis();
+    private long sequence;
+
+    public RevocationLog( int capacity ) {
+        if( capacity <= 0 ) throw new IllegalArgumentException( "capacity must be positive, got " + capacity );
+
+        this.tokenIds = new String[capacity];
+    }
+
+    public synchronized long append( String tokenId ) {
+        sequence++;
+        tokenIds[( int ) ( sequence % tokenIds.length )] = tokenId;
+
+        return sequence;
+    }
+
+    public synchronized Revocations since( long since ) {
+        if( since > sequence || sequence - since > tokenIds.length )
+            return new Revocations( epoch, sequence, false, Collections.emptyList() );
+
+        final List<String> revoked = new ArrayList<>( ( int ) ( sequence - since ) );
+        for( long s = since + 1; s <= sequence; s++ ) revoked.add( tokenIds[( int ) ( s % tokenIds.length )] );
+
+        return new Revocations( epoch, sequence, true, revoked );
+    }
+}
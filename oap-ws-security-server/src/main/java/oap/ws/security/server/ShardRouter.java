@@ -0,0 +1,194 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.ws.security.LiveTokens;
+import oap.ws.security.Revocations;
+import oap.ws.security.Token;
+import oap.ws.security.User;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Front of a sharded deployment: every node runs an {@link AuthService} with its own shard number and a router
+ * listing all shards in order, the local one as {@code "@service:auth-service"} and the others as remote
+ * {@link AuthShard}s. Web services and {@link DefaultTokenService} are then wired to the router instead of the
+ * local service.
+ * <p>
+ * Logins and logouts go to the user's {@link Shards#home(String, int) home shard}; lookups go to the shard named
+ * in the token id. Revocations are copied to every other shard, so caching token services may poll any node.
+ * A shard that cannot be reached only affects its own users: their tokens are not found until it is back.
+ * <p>
+ * Each node has a {@link UserStorage} of its own, so user writes must go through the router too (see
+ * {@link OrganizationWS}): they have to reach the user's home shard, which checks the password on login, and are
+ * copied to the other shards on a best-effort basis so they can list and validate users locally.
+ */
+@Slf4j
+public class ShardRouter implements AuthShard {
+
+    private final int shard;
+    private final List<AuthShard> shards;
+
+    public ShardRouter( int shard, List<AuthShard> shards ) {
+        if( shard < 0 || shard >= shards.size() )
+            throw new IllegalArgumentException( "shard " + shard + " is not one of " + shards.size() );
+
+        this.shard = shard;
+        this.shards = new ArrayList<>( shards );
+    }
+
+    @Override
+    public Optional<Token> generateToken( String email, String password ) {
+        return shards.get( Shards.home( email, shards.size() ) ).generateToken( email, password );
+    }
+
+    @Override
+    public Optional<Token> getToken( String tokenId ) {
+        final int owner = Shards.shardOf( tokenId );
+        if( owner < 0 || owner >= shards.size() ) return Optional.empty();
+
+        try {
+            return shards.get( owner ).getToken( tokenId );
+        } catch( RuntimeException e ) {
+            log.warn( "Shard [{}] failed to look up a token: {}", owner, e.getMessage() );
+
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Map<String, Token> getTokens( Collection<String> tokenIds ) {
+        final Map<Integer, List<String>> byShard = new HashMap<>();
+        for( String tokenId : tokenIds ) {
+            final int owner = Shards.shardOf( tokenId );
+            if( owner >= 0 && owner < shards.size() )
+                byShard.computeIfAbsent( owner, s -> new ArrayList<>() ).add( tokenId );
+        }
+
+        if( byShard.size() == 1 ) {
+            final Map.Entry<Integer, List<String>> only = byShard.entrySet().iterator().next();
+
+            return getTokens( only.getKey(), only.getValue() );
+        }
+
+        final Map<String, Token> tokens = new HashMap<>();
+        byShard.forEach( ( owner, ids ) -> tokens.putAll( getTokens( owner, ids ) ) );
+
+        return tokens;
+    }
+
+    private Map<String, Token> getTokens( int owner, List<String> tokenIds ) {
+        try {
+            return shards.get( owner ).getTokens( tokenIds );
+        } catch( RuntimeException e ) {
+            log.warn( "Shard [{}] failed to look up {} tokens: {}", owner, tokenIds.size(), e.getMessage() );
+
+            return Collections.emptyMap();
+        }
+    }
+
+    @Override
+    public Optional<String> invalidateUser( String email ) {
+        final int home = Shards.home( email, shards.size() );
+        final Optional<String> revoked = shards.get( home ).invalidateUser( email );
+
+        revoked.ifPresent( tokenId -> {
+            for( int i = 0; i < shards.size(); i++ ) {
+                if( i == home ) continue;
+
+                try {
+                    shards.get( i ).revoked( tokenId );
+                } catch( RuntimeException e ) {
+                    log.warn( "Shard [{}] missed revocation of [{}]: {}", i, tokenId, e.getMessage() );
+                }
+            }
+        } );
+
+        return revoked;
+    }
+
+    @Override
+    public void revoked( String tokenId ) {
+        shards.get( shard ).revoked( tokenId );
+    }
+
+    @Override
+    public Revocations revocations( long since ) {
+        return shards.get( shard ).revocations( since );
+    }
+
+    @Override
+    public void storeUsers( List<User> users ) {
+        final Map<Integer, List<User>> byHome = new HashMap<>();
+        for( User user : users )
+            byHome.computeIfAbsent( Shards.home( user.email, shards.size() ), s -> new ArrayList<>() ).add( user );
+
+        byHome.forEach( ( home, homeUsers ) -> shards.get( home ).storeUsers( homeUsers ) );
+
+        for( int i = 0; i < shards.size(); i++ ) {
+            final List<User> copies = new ArrayList<>( users.size() );
+            for( Map.Entry<Integer, List<User>> e : byHome.entrySet() )
+                if( e.getKey() != i ) copies.addAll( e.getValue() );
+            if( copies.isEmpty() ) continue;
+
+            try {
+                shards.get( i ).storeUsers( copies );
+            } catch( RuntimeException e ) {
+                log.warn( "Shard [{}] missed {} stored users: {}", i, copies.size(), e.getMessage() );
+            }
+        }
+    }
+
+    @Override
+    public void deleteUser( String email ) {
+        final int home = Shards.home( email, shards.size() );
+        shards.get( home ).deleteUser( email );
+
+        for( int i = 0; i < shards.size(); i++ ) {
+            if( i == home ) continue;
+
+            try {
+                shards.get( i ).deleteUser( email );
+            } catch( RuntimeException e ) {
+                log.warn( "Shard [{}] missed deletion of user [{}]: {}", i, email, e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * Each shard has a filter of its own ids only, so there is none for the whole deployment.
+     */
+    @Override
+    public LiveTokens liveTokens( long epoch, long since ) {
+        return null;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Token ids issued by a sharded {@link AuthService} start with the number of the owning shard followed by
+ * {@value #SEPARATOR}, which occurs neither in UUIDs nor in signed ids.
+ */
+public final class Shards {
+
+    public static final char SEPARATOR = ':';
+
+    private Shards() {
+    }
+
+    public static String prefix( int shard, String tokenId ) {
+        return shard < 0 ? tokenId : shard + String.valueOf( SEPARATOR ) + tokenId;
+    }
+
+    /**
+     * Only the canonical prefix {@link #prefix(int, String)} writes is valid, so {@code 07:} is no alias of
+     * {@code 7:}.
+     *
+     * @return the shard encoded in the id, or {@code -1} if it has no (valid) prefix
+     */
+    public static int shardOf( String tokenId ) {
+        final int separator = tokenId.indexOf( SEPARATOR );
+        if( separator <= 0 || separator > 4 || separator > 1 && tokenId.charAt( 0 ) == '0' ) return -1;
+
+        int shard = 0;
+        for( int i = 0; i < separator; i++ ) {
+            final char c = tokenId.charAt( i );
+            if( c < '0' || c > '9' ) return -1;
+            shard = shard * 10 + c - '0';
+        }
+
+        return shard;
+    }
+
+    /**
+     * Shard that issues the user's tokens. Consistent hashing keeps most users on their shard when shards are
+     * added.
+     */
+    public static int home( String email, int shards ) {
+        return Hashing.consistentHash( Hashing.murmur3_32().hashString( email, StandardCharsets.UTF_8 ), shards );
+    }
+}
@@ -0,0 +1,437 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+import oap.storage.FileStorage;
+import oap.util.Stream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * In-memory storage persisted as a compact snapshot plus a tail of changes, so that startup reads two files
+ * instead of listing and parsing one JSON file per object as {@link FileStorage} does.
+ * <p>
+ * Generation {@code n} consists of {@code snapshot-n.bin}, all objects as length-prefixed binary records, and
+ * {@code changes-n.log}, the stores and deletes appended since. Both are memory-mapped on load, and a change log
+ * ending in a torn record is truncated after its last complete one before it is appended to again.
+ * <p>
+ * Once the tail holds more changes than the snapshot has objects (but at least {@value #MIN_COMPACTION}), writes
+ * move on to the next generation's change log and a background thread writes that generation's snapshot to a
+ * temporary file and moves it in place. Changes that reach the snapshot as well as the new log are replayed over it
+ * harmlessly, so a crash at any point leaves a loadable set of files behind. {@link #stop()} and {@link #clear()}
+ * compact synchronously. A directory without snapshot or changes is migrated from {@link FileStorage} JSON files
+ * once; those are not read again afterwards.
+ * <p>
+ * Reads are lock-free; writes are serialized, and a batch of stores is appended with a single write.
+ */
+@Slf4j
+public abstract class SnapshotStorage<T> {
+
+    private static final int MIN_COMPACTION = 10000;
+    private static final int MAGIC = 0x4F415053;
+    private static final byte STORE = 1;
+    private static final byte DELETE = 2;
+    private static final Pattern GENERATION = Pattern.compile( "(snapshot|changes)-(\\d+)\\.(bin|log)" );
+
+    protected final ConcurrentMap<String, T> data = new ConcurrentHashMap<>();
+    private final Path path;
+    private final Function<T, String> identify;
+    private final ExecutorService compactions = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat( "snapshot-compaction-%d" ).setDaemon( true ).build() );
+    private FileChannel changes;
+    private long generation;
+    private long changeCount;
+    private boolean compacting;
+
+    protected SnapshotStorage( Path path, Function<T, String> identify ) {
+        this.path = path;
+        this.identify = identify;
+
+        try {
+            Files.createDirectories( path );
+            load();
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    protected abstract void write( T object, DataOutputStream out ) throws IOException;
+
+    protected abstract T read( ByteBuffer in );
+
+    public Stream<T> select() {
+        return Stream.of( data.values().stream() );
+    }
+
+    public Optional<T> get( String id ) {
+        return Optional.ofNullable( data.get( id ) );
+    }
+
+    public long size() {
+        return data.size();
+    }
+
+    public synchronized void store( T object ) {
+        data.put( identify.apply( object ), object );
+        append( Collections.singletonList( record( STORE, object, null ) ) );
+    }
+
+    public synchronized void store( Collection<T> objects ) {
+        final List<byte[]> records = new ArrayList<>( objects.size() );
+        for( T object : objects ) {
+            data.put( identify.apply( object ), object );
+            records.add( record( STORE, object, null ) );
+        }
+
+        if( !records.isEmpty() ) append( records );
+    }
+
+    public synchronized void delete( String id ) {
+        if( data.remove( id ) != null ) append( Collections.singletonList( record( DELETE, null, id ) ) );
+    }
+
+    public synchronized void clear() {
+        awaitCompaction();
+
+        data.clear();
+        compact();
+    }
+
+    public synchronized void fsync() {
+        try {
+            changes.force( false );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    public synchronized void stop() {
+        awaitCompaction();
+        compactions.shutdown();
+
+        if( changeCount > 0 ) compact();
+
+        try {
+            changes.force( true );
+            changes.close();
+        } catch( IOException e ) {
+            log.error( "Failed to close " + path, e );
+        }
+    }
+
+    private void load() throws IOException {
+        final TreeSet<Long> snapshots = new TreeSet<>();
+        final TreeSet<Long> tails = new TreeSet<>();
+        final List<Path> files;
+        try( java.util.stream.Stream<Path> list = Files.list( path ) ) {
+            files = list.collect( Collectors.toList() );
+        }
+        for( Path file : files ) {
+            final Matcher matcher = GENERATION.matcher( file.getFileName().toString() );
+            if( !matcher.matches() ) continue;
+
+            ( matcher.group( 1 ).equals( "snapshot" ) ? snapshots : tails ).add( Long.parseLong( matcher.group( 2 ) ) );
+        }
+
+        if( snapshots.isEmpty() && tails.isEmpty() ) {
+            migrate( files );
+
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        final long base = snapshots.isEmpty() ? 0 : snapshots.last();
+        if( base > 0 ) loadSnapshot( snapshot( base ) );
+        for( long tail : tails.tailSet( base ) ) changeCount += replay( changes( tail ) );
+        generation = Math.max( base, tails.isEmpty() ? 0 : tails.last() );
+
+        for( long old : snapshots.headSet( base ) ) Files.deleteIfExists( snapshot( old ) );
+        for( long old : tails.headSet( base ) ) Files.deleteIfExists( changes( old ) );
+
+        log.info( "Loaded {} objects from {} (generation {}, {} changes) in {} ms", data.size(), path, generation,
+            changeCount, System.currentTimeMillis() - start );
+
+        changes = FileChannel.open( changes( generation ), CREATE, WRITE, APPEND );
+    }
+
+    private void migrate( List<Path> files ) {
+        if( files.stream().anyMatch( file -> file.getFileName().toString().endsWith( ".json" ) ) ) {
+            final FileStorage<T> legacy = new FileStorage<>( path, identify );
+            legacy.select().forEach( object -> data.put( identify.apply( object ), object ) );
+            legacy.close();
+
+            log.info( "Migrated {} objects from JSON files in {}", data.size(), path );
+        }
+
+        compact();
+    }
+
+    private void loadSnapshot( Path file ) throws IOException {
+        try( FileChannel in = FileChannel.open( file, READ ) ) {
+            final MappedByteBuffer buffer = in.map( FileChannel.MapMode.READ_ONLY, 0, in.size() );
+            if( buffer.getInt() != MAGIC ) throw new IOException( file + " is not a snapshot" );
+
+            final int count = buffer.getInt();
+            for( int i = 0; i < count; i++ ) {
+                final int length = buffer.getInt();
+                final ByteBuffer record = slice( buffer, length );
+                final T object = read( record );
+                data.put( identify.apply( object ), object );
+            }
+        }
+    }
+
+    /**
+     * Cuts a torn record off the end of {@code file}, so that later changes are not appended after it.
+     */
+    private long replay( Path file ) throws IOException {
+        long replayed = 0;
+        long complete = 0;
+        final long size;
+        try( FileChannel in = FileChannel.open( file, READ ) ) {
+            size = in.size();
+            final MappedByteBuffer buffer = in.map( FileChannel.MapMode.READ_ONLY, 0, size );
+
+            while( buffer.remaining() >= 4 ) {
+                final int length = buffer.getInt();
+                if( length <= 0 || length > buffer.remaining() ) break;
+
+                final ByteBuffer record = slice( buffer, length );
+                final byte type = record.get();
+                switch( type ) {
+                    case STORE:
+                        final T object = read( record );
+                        data.put( identify.apply( object ), object );
+                        break;
+                    case DELETE:
+                        data.remove( readString( record ) );
+                        break;
+                    default:
+                        throw new IOException( "Unknown change type " + type + " in " + file );
+                }
+                replayed++;
+                complete = buffer.position();
+            }
+        }
+
+        if( complete < size ) {
+            log.warn( "Changes {} are truncated at {}, dropping {} bytes", file, complete, size - complete );
+
+            try( FileChannel out = FileChannel.open( file, WRITE ) ) {
+                out.truncate( complete );
+                out.force( true );
+            }
+        }
+
+        return replayed;
+    }
+
+    private byte[] record( byte type, T object, String id ) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 128 );
+            final DataOutputStream out = new DataOutputStream( bytes );
+            out.writeByte( type );
+            if( type == STORE ) write( object, out );
+            else writeString( out, id );
+
+            return bytes.toByteArray();
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    private void append( List<byte[]> records ) {
+        int size = 0;
+        for( byte[] record : records ) size += 4 + record.length;
+
+        final ByteBuffer buffer = ByteBuffer.allocate( size );
+        for( byte[] record : records ) buffer.putInt( record.length ).put( record );
+        buffer.flip();
+
+        try {
+            while( buffer.hasRemaining() ) changes.write( buffer );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+
+        changeCount += records.size();
+        if( !compacting && changeCount >= Math.max( MIN_COMPACTION, data.size() ) ) {
+            compacting = true;
+            final long next = rotate();
+            compactions.execute( () -> {
+                try {
+                    writeSnapshot( next );
+                } catch( RuntimeException e ) {
+                    log.error( "Failed to compact " + path + " to generation " + next, e );
+                } finally {
+                    synchronized( this ) {
+                        compacting = false;
+                        notifyAll();
+                    }
+                }
+            } );
+        }
+    }
+
+    synchronized void awaitCompaction() {
+        while( compacting ) {
+            try {
+                wait();
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+
+                return;
+            }
+        }
+    }
+
+    private void compact() {
+        writeSnapshot( rotate() );
+    }
+
+    /**
+     * Starts appending to the next generation's change log.
+     */
+    private long rotate() {
+        final long next = generation + 1;
+        try {
+            if( changes != null ) changes.close();
+            changes = FileChannel.open( changes( next ), CREATE, WRITE, APPEND );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+
+        generation = next;
+        changeCount = 0;
+
+        return next;
+    }
+
+    /**
+     * Writes the current objects as snapshot {@code next} and removes the generation before it, whose changes the
+     * snapshot includes.
+     */
+    private void writeSnapshot( long next ) {
+        try {
+            final Path tmp = path.resolve( "snapshot-" + next + ".tmp" );
+            try( FileChannel out = FileChannel.open( tmp, CREATE, WRITE, TRUNCATE_EXISTING ) ) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 1 << 16 );
+                final DataOutputStream record = new DataOutputStream( bytes );
+                final List<T> objects = data.values().stream().collect( Collectors.toList() );
+
+                final ByteBuffer header = ByteBuffer.allocate( 8 ).putInt( MAGIC ).putInt( objects.size() );
+                header.flip();
+                while( header.hasRemaining() ) out.write( header );
+
+                for( T object : objects ) {
+                    bytes.reset();
+                    record.writeInt( 0 );
+                    write( object, record );
+
+                    final ByteBuffer buffer = ByteBuffer.wrap( bytes.toByteArray() );
+                    buffer.putInt( 0, buffer.limit() - 4 );
+                    while( buffer.hasRemaining() ) out.write( buffer );
+                }
+                out.force( true );
+            }
+            Files.move( tmp, snapshot( next ), ATOMIC_MOVE );
+
+            Files.deleteIfExists( snapshot( next - 1 ) );
+            Files.deleteIfExists( changes( next - 1 ) );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    private Path snapshot( long generation ) {
+        return path.resolve( "snapshot-" + generation + ".bin" );
+    }
+
+    private Path changes( long generation ) {
+        return path.resolve( "changes-" + generation + ".log" );
+    }
+
+    private static ByteBuffer slice( ByteBuffer buffer, int length ) {
+        final ByteBuffer record = buffer.slice();
+        record.limit( length );
+        buffer.position( buffer.position() + length );
+
+        return record;
+    }
+
+    protected static void writeString( DataOutputStream out, String value ) throws IOException {
+        if( value == null ) {
+            out.writeInt( -1 );
+
+            return;
+        }
+
+        final byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    protected static String readString( ByteBuffer in ) {
+        final int length = in.getInt();
+        if( length < 0 ) return null;
+
+        final byte[] bytes = new byte[length];
+        in.get( bytes );
+
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+}
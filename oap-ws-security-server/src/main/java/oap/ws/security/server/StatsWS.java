@@ -0,0 +1,75 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.WsMethod;
+import oap.ws.security.AuditLog;
+import oap.ws.security.CachingTokenService;
+import oap.ws.security.SecurityInterceptor;
+import oap.ws.security.WsSecurity;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static oap.http.Request.HttpMethod.GET;
+import static oap.ws.security.Role.ADMIN;
+
+public class StatsWS {
+
+    private final AuthService authService;
+    private final SecurityInterceptor securityInterceptor;
+    private final CachingTokenService tokenService;
+    private final LoginThrottle loginThrottle;
+    private final TokenSweeper tokenSweeper;
+    private final AuditLog auditLog;
+    private final TokenJournal tokenJournal;
+
+    public StatsWS( AuthService authService, SecurityInterceptor securityInterceptor,
+                    CachingTokenService tokenService, LoginThrottle loginThrottle, TokenSweeper tokenSweeper,
+                    AuditLog auditLog, TokenJournal tokenJournal ) {
+        this.authService = authService;
+        this.securityInterceptor = securityInterceptor;
+        this.tokenService = tokenService;
+        this.loginThrottle = loginThrottle;
+        this.tokenSweeper = tokenSweeper;
+        this.auditLog = auditLog;
+        this.tokenJournal = tokenJournal;
+    }
+
+    @WsMethod( method = GET, path = "/" )
+    @WsSecurity( role = ADMIN )
+    public Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "auth", authService.stats() );
+        stats.put( "interceptor", securityInterceptor.stats() );
+        stats.put( "tokenCache", tokenService.stats() );
+        stats.put( "loginThrottle", loginThrottle.stats() );
+        stats.put( "tokenSweeper", tokenSweeper.stats() );
+        stats.put( "audit", auditLog.stats() );
+        stats.put( "tokenJournal", tokenJournal.stats() );
+
+        return stats;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+import oap.ws.security.Token;
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Write-behind, append-only log of {@link AuthService} tokens, so that a restart of the security server doesn't
+ * log everybody out. Issue, access and removal events are queued on the request thread and appended by a single
+ * writer thread. On start the log is replayed from a memory-mapped file, still live tokens are restored into
+ * {@link AuthService} and the log is compacted down to them. While running, the writer compacts the log again
+ * whenever records of dead tokens and superseded accesses outnumber the live tokens.
+ * <p>
+ * Only the last access noticed within {@code expirationTime / 4} is recorded, so restored tokens may expire up to
+ * that much earlier than they would have without the restart. At most {@code capacity} records wait for the
+ * writer: beyond that, access records are dropped right away and issue and removal records after waiting
+ * {@link #ENQUEUE_TIMEOUT} ms for room, since listeners run on request threads and under token store locks. A
+ * dropped issue logs the user out on restart and a dropped removal restores the token; {@code dropped} counts both.
+ */
+@Slf4j
+public class TokenJournal implements TokenListener {
+
+    private static final byte ISSUED = 1;
+    private static final byte ACCESSED = 2;
+    private static final byte REMOVED = 3;
+    /**
+     * Smaller logs are not worth compacting while running.
+     */
+    private static final long MIN_COMPACTION = 1024;
+    private static final long ENQUEUE_TIMEOUT = 10;
+
+    private final AuthService authService;
+    private final Path file;
+    private final long expiration;
+    private final BlockingQueue<ByteBuffer> records;
+    private final ConcurrentMap<String, Long> recordedAccess = new ConcurrentHashMap<>();
+    private final LongAdder dropped = new LongAdder();
+    private FileChannel channel;
+    /**
+     * Records in {@link #file}, only touched by the writer once started.
+     */
+    private long recordCount;
+    private Thread writer;
+    private volatile boolean running;
+
+    public TokenJournal( AuthService authService, Path path ) {
+        this( authService, path, 65536 );
+    }
+
+    public TokenJournal( AuthService authService, Path path, int capacity ) {
+        this.authService = authService;
+        this.file = path.resolve( "tokens.log" );
+        this.expiration = TimeUnit.MINUTES.toMillis( authService.expirationTime() );
+        this.records = new LinkedBlockingQueue<>( capacity );
+    }
+
+    public void start() {
+        try {
+            Files.createDirectories( file.getParent() );
+
+            final Map<String, Entry> entries = replay();
+            final long now = System.currentTimeMillis();
+
+            final List<ByteBuffer> compacted = new ArrayList<>();
+            for( Map.Entry<String, Entry> e : entries.entrySet() ) {
+                final Entry entry = e.getValue();
+                if( entry.expired( now, expiration ) ) continue;
+
+                authService.restoreToken( e.getKey(), entry.email, new DateTime( entry.created ),
+                    entry.expires > 0 ? new DateTime( entry.expires ) : null, entry.accessed )
+                    .ifPresent( token -> {
+                        compacted.add( issuedRecord( token.id, entry ) );
+                        recordedAccess.put( token.id, entry.accessed );
+                    } );
+            }
+
+            log.info( "Restored {} of {} journaled tokens", compacted.size(), entries.size() );
+
+            rewrite( compacted );
+        } catch( IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+
+        running = true;
+        writer = new Thread( this::write, "token-journal" );
+        writer.setDaemon( true );
+        writer.start();
+
+        authService.addTokenListener( this );
+    }
+
+    public void stop() {
+        if( writer == null ) return;
+
+        running = false;
+        try {
+            writer.join();
+            flush( new ArrayList<>( records ) );
+            channel.force( true );
+            channel.close();
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        } catch( IOException e ) {
+            log.error( "Failed to close token journal", e );
+        }
+    }
+
+    @Override
+    public void issued( Token token ) {
+        final long now = System.currentTimeMillis();
+
+        recordedAccess.put( token.id, now );
+
+        final Entry entry = new Entry();
+        entry.email = token.user.email;
+        entry.created = token.created.getMillis();
+        entry.expires = token.expires != null ? token.expires.getMillis() : 0;
+        entry.accessed = now;
+        enqueue( issuedRecord( token.id, entry ) );
+    }
+
+    @Override
+    public void accessed( Token token ) {
+        final long now = System.currentTimeMillis();
+        final Long recorded = recordedAccess.get( token.id );
+
+        if( recorded != null && now - recorded < expiration / 4 ) return;
+
+        recordedAccess.put( token.id, now );
+
+        final ByteBuffer record = record( ACCESSED, token.id, 8 );
+        record.putLong( now );
+        if( !records.offer( finish( record ) ) ) {
+            dropped.increment();
+            log.trace( "Token journal is full, dropping access to [{}]", token.id );
+        }
+    }
+
+    @Override
+    public void removed( Token token ) {
+        recordedAccess.remove( token.id );
+
+        enqueue( finish( record( REMOVED, token.id, 0 ) ) );
+    }
+
+    public Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "queued", records.size() );
+        stats.put( "dropped", dropped.sum() );
+
+        return stats;
+    }
+
+    private void enqueue( ByteBuffer record ) {
+        try {
+            if( records.offer( record, ENQUEUE_TIMEOUT, TimeUnit.MILLISECONDS ) ) return;
+        } catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+
+        dropped.increment();
+        log.warn( "Token journal is full, dropping a record" );
+    }
+
+    private void write() {
+        final List<ByteBuffer> batch = new ArrayList<>();
+        while( running ) {
+            try {
+                final ByteBuffer record = records.poll( 1, TimeUnit.SECONDS );
+                if( record == null ) continue;
+
+                batch.add( record );
+                records.drainTo( batch );
+                flush( batch );
+                recordCount += batch.size();
+                batch.clear();
+
+                if( recordCount >= MIN_COMPACTION && recordCount - recordedAccess.size() > recordedAccess.size() )
+                    compact();
+            } catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+
+                return;
+            } catch( IOException e ) {
+                log.error( "Failed to write " + batch.size() + " token journal records", e );
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush( List<ByteBuffer> batch ) throws IOException {
+        if( batch.isEmpty() ) return;
+
+        final ByteBuffer[] buffers = batch.toArray( new ByteBuffer[batch.size()] );
+        long remaining = 0;
+        for( ByteBuffer buffer : buffers ) remaining += buffer.remaining();
+        while( remaining > 0 ) remaining -= channel.write( buffers );
+    }
+
+    /**
+     * Runs on the writer, so nothing is appended meanwhile; records queued in the meantime go to the new file.
+     */
+    private void compact() throws IOException {
+        final long before = recordCount;
+        final long now = System.currentTimeMillis();
+
+        final List<ByteBuffer> compacted = new ArrayList<>();
+        for( Map.Entry<String, Entry> e : replay().entrySet() )
+            if( !e.getValue().expired( now, expiration ) ) compacted.add( issuedRecord( e.getKey(), e.getValue() ) );
+
+        channel.close();
+        try {
+            rewrite( compacted );
+        } finally {
+            if( !channel.isOpen() ) channel = FileChannel.open( file, CREATE, WRITE, APPEND );
+        }
+
+        log.debug( "Compacted token journal from {} to {} records", before, recordCount );
+    }
+
+    /**
+     * Atomically replaces {@link #file} with {@code compacted} and reopens {@link #channel} for appending.
+     */
+    private void rewrite( List<ByteBuffer> compacted ) throws IOException {
+        final Path tmp = file.resolveSibling( file.getFileName() + ".tmp" );
+        try( FileChannel out = FileChannel.open( tmp, CREATE, WRITE, TRUNCATE_EXISTING ) ) {
+            out.write( compacted.toArray( new ByteBuffer[compacted.size()] ) );
+            out.force( true );
+        }
+        Files.move( tmp, file, ATOMIC_MOVE, REPLACE_EXISTING );
+
+        channel = FileChannel.open( file, CREATE, WRITE, APPEND );
+        recordCount = compacted.size();
+    }
+
+    private Map<String, Entry> replay() throws IOException {
+        final Map<String, Entry> entries = new LinkedHashMap<>();
+        if( !Files.exists( file ) ) return entries;
+
+        try( FileChannel in = FileChannel.open( file, READ ) ) {
+            final MappedByteBuffer buffer = in.map( FileChannel.MapMode.READ_ONLY, 0, in.size() );
+
+            while( buffer.remaining() >= 4 ) {
+                final int length = buffer.getInt();
+                if( length <= 0 || length > buffer.remaining() ) {
+                    log.warn( "Token journal {} is truncated at {}", file, buffer.position() - 4 );
+                    break;
+                }
+
+                final byte type = buffer.get();
+                final String tokenId = getString( buffer );
+                switch( type ) {
+                    case ISSUED:
+                        final Entry entry = new Entry();
+                        entry.email = getString( buffer );
+                        entry.created = buffer.getLong();
+                        entry.expires = buffer.getLong();
+                        entry.accessed = buffer.getLong();
+                        entries.put( tokenId, entry );
+                        break;
+                    case ACCESSED:
+                        final long accessed = buffer.getLong();
+                        final Entry accessedEntry = entries.get( tokenId );
+                        if( accessedEntry != null ) accessedEntry.accessed = accessed;
+                        break;
+                    case REMOVED:
+                        entries.remove( tokenId );
+                        break;
+                    default:
+                        throw new IOException( "Unknown token journal record type " + type + " in " + file );
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    private static ByteBuffer issuedRecord( String tokenId, Entry entry ) {
+        final byte[] email = entry.email.getBytes( StandardCharsets.UTF_8 );
+        final ByteBuffer record = record( ISSUED, tokenId, 2 + email.length + 24 );
+        record.putShort( ( short ) email.length ).put( email );
+        record.putLong( entry.created );
+        record.putLong( entry.expires );
+        record.putLong( entry.accessed );
+
+        return finish( record );
+    }
+
+    private static ByteBuffer record( byte type, String tokenId, int payload ) {
+        final byte[] id = tokenId.getBytes( StandardCharsets.UTF_8 );
+        final ByteBuffer record = ByteBuffer.allocate( 4 + 1 + 2 + id.length + payload );
+        record.putInt( record.capacity() - 4 );
+        record.put( type );
+        record.putShort( ( short ) id.length ).put( id );
+
+        return record;
+    }
+
+    private static ByteBuffer finish( ByteBuffer record ) {
+        record.flip();
+
+        return record;
+    }
+
+    private static String getString( ByteBuffer buffer ) {
+        final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get( bytes );
+
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    private static class Entry {
+        String email;
+        long created;
+        long expires;
+        long accessed;
+
+        boolean expired( long now, long expiration ) {
+            return accessed + expiration <= now || expires > 0 && expires <= now;
+        }
+    }
+}
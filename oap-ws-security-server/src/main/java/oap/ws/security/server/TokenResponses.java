@@ -0,0 +1,139 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import oap.http.HttpResponse;
+import oap.json.Binder;
+import oap.ws.security.Token;
+import oap.ws.security.User;
+import org.apache.http.entity.ContentType;
+import org.joda.time.DateTime;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+
+/**
+ * JSON of {@link Converters#toTokenDTO(Token) token DTOs}, rendered once per token and reused for as long as the
+ * token lives and its content stays the same. Each rendering carries an ETag, so clients polling a token can send
+ * {@code If-None-Match} and get an empty {@code 304} back.
+ */
+public class TokenResponses implements TokenListener {
+
+    private static final String ETAG = "ETag";
+
+    private final Cache<String, Rendered> rendered;
+
+    public TokenResponses( long maximumSize, int expirationTime ) {
+        this.rendered = CacheBuilder.newBuilder()
+            .maximumSize( maximumSize )
+            .expireAfterAccess( expirationTime, TimeUnit.MINUTES )
+            .build();
+    }
+
+    /**
+     * Also drops renderings of tokens as soon as {@code authService} removes them.
+     */
+    public TokenResponses( AuthService authService, long maximumSize ) {
+        this( maximumSize, authService.expirationTime() );
+
+        authService.addTokenListener( this );
+    }
+
+    public Rendered render( Token token ) {
+        final Rendered cached = rendered.getIfPresent( token.id );
+        if( cached != null && cached.matches( token ) ) return cached;
+
+        final Rendered fresh = new Rendered( token );
+        rendered.put( token.id, fresh );
+
+        return fresh;
+    }
+
+    public HttpResponse respond( Token token, Optional<String> ifNoneMatch ) {
+        final Rendered rendering = render( token );
+
+        if( ifNoneMatch.isPresent() && ifNoneMatch.get().contains( rendering.etag ) )
+            return HttpResponse.status( HTTP_NOT_MODIFIED ).withHeader( ETAG, rendering.etag );
+
+        return HttpResponse.ok( rendering.json, true, ContentType.APPLICATION_JSON ).withHeader( ETAG, rendering.etag );
+    }
+
+    /**
+     * @return a JSON object of the tokens' DTOs by id, assembled from their renderings
+     */
+    public String json( Map<String, Token> tokens ) {
+        final StringBuilder json = new StringBuilder( tokens.size() * 256 + 2 ).append( '{' );
+
+        for( Token token : tokens.values() ) {
+            if( json.length() > 1 ) json.append( ',' );
+            json.append( Binder.json.marshal( token.id ) ).append( ':' ).append( render( token ).json );
+        }
+
+        return json.append( '}' ).toString();
+    }
+
+    @Override
+    public void issued( Token token ) {
+    }
+
+    @Override
+    public void removed( Token token ) {
+        rendered.invalidate( token.id );
+    }
+
+    public static final class Rendered {
+        public final String json;
+        public final String etag;
+        private final User user;
+        private final DateTime created;
+        private final DateTime expires;
+
+        private Rendered( Token token ) {
+            this.json = Binder.json.marshal( Converters.toTokenDTO( token ) );
+            this.etag = '"' + Hashing.murmur3_128().hashString( json, StandardCharsets.UTF_8 ).toString() + '"';
+            this.user = token.user;
+            this.created = token.created;
+            this.expires = token.expires;
+        }
+
+        /**
+         * Tokens may be rebuilt on every read (see {@link OffHeapTokenStore}), so this compares content, starting
+         * with the cheap reference check.
+         */
+        private boolean matches( Token token ) {
+            return ( user == token.user || Objects.equals( user, token.user ) )
+                && Objects.equals( created, token.created )
+                && Objects.equals( expires, token.expires );
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.security.Token;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Where {@link AuthService} keeps live tokens. Entries expire {@link #expirationTime()} minutes after they were
+ * last read or written; every removal other than replacing a token with the same id is reported to the
+ * {@link #onRemoval(Consumer) removal listener}.
+ */
+public interface TokenStore {
+    /**
+     * Returns the token and marks it accessed.
+     */
+    Optional<Token> get( String tokenId );
+
+    /**
+     * Returns the tokens found, marking each accessed. Ids that are not present are left out.
+     */
+    Map<String, Token> getAll( Collection<String> tokenIds );
+
+    void put( Token token );
+
+    /**
+     * Puts back a token saved before a restart. It expires {@link #expirationTime()} minutes after
+     * {@code accessed} (epoch millis) unless it is read again before that.
+     */
+    void restore( Token token, long accessed );
+
+    void invalidate( String tokenId );
+
+    long size();
+
+    /**
+     * Drops expired entries now rather than whenever the store happens to be touched.
+     *
+     * @return number of expired entries dropped
+     */
+    long cleanUp();
+
+    int expirationTime();
+
+    void onRemoval( Consumer<Token> listener );
+
+    Map<String, Object> stats();
+}
@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Scheduled sweep of expired tokens. Without it they are only reclaimed when the store happens to be touched, and
+ * their removal listeners (user index, journal) run late.
+ */
+@Slf4j
+public class TokenSweeper implements Runnable {
+
+    private final TokenStore tokenStore;
+    private final LongAdder sweeps = new LongAdder();
+    private final LongAdder freed = new LongAdder();
+    private final AtomicLong lastFreed = new AtomicLong();
+    private final AtomicLong lastDuration = new AtomicLong();
+
+    public TokenSweeper( TokenStore tokenStore ) {
+        this.tokenStore = tokenStore;
+    }
+
+    @Override
+    public void run() {
+        final long start = System.nanoTime();
+        final long count = tokenStore.cleanUp();
+        final long duration = System.nanoTime() - start;
+
+        sweeps.increment();
+        freed.add( count );
+        lastFreed.set( count );
+        lastDuration.set( duration / 1000 );
+
+        if( count > 0 ) log.debug( "Swept {} expired tokens in {}us, {} left", count, duration / 1000, tokenStore.size() );
+    }
+
+    public Map<String, Object> stats() {
+        final Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put( "sweeps", sweeps.sum() );
+        stats.put( "freed", freed.sum() );
+        stats.put( "lastFreed", lastFreed.get() );
+        stats.put( "lastDuration", lastDuration.get() );
+
+        return stats;
+    }
+}
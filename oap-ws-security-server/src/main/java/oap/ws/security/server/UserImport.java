@@ -0,0 +1,125 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import oap.json.Binder;
+import oap.ws.security.Role;
+import oap.ws.security.User;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Bulk counterpart of {@link OrganizationWS#userStore}: parses a JSON array or newline-delimited JSON, applies the
+ * same access rules to every record, hashes the passwords of accepted records with {@code hashPasswords} and
+ * stores them all with one call to {@code storeUsers}. Rejected records are reported by position.
+ */
+final class UserImport {
+
+    private static final TypeReference<List<Object>> RECORDS = new TypeReference<List<Object>>() {
+    };
+
+    private UserImport() {
+    }
+
+    static ImportResult importUsers( String body, String organizationId, User sessionUser,
+                                     UserStorage userStorage, Consumer<List<User>> hashPasswords,
+                                     Consumer<List<User>> storeUsers ) {
+        final ImportResult result = new ImportResult();
+        final List<User> accepted = new ArrayList<>();
+        final Set<String> emails = new HashSet<>();
+
+        final List<String> records = split( body, result );
+        for( int index = 0; index < records.size(); index++ ) {
+            final String record = records.get( index );
+            if( record == null ) continue;
+
+            final User user;
+            try {
+                user = Binder.json.unmarshal( User.class, record );
+            } catch( RuntimeException e ) {
+                result.errors.add( new ImportResult.RecordError( index, null, "Malformed user: " + e.getMessage() ) );
+                continue;
+            }
+
+            final String error = validate( user, organizationId, sessionUser, userStorage, emails );
+            if( error != null ) {
+                result.errors.add( new ImportResult.RecordError( index, user.email, error ) );
+                continue;
+            }
+
+            user.organizationId = organizationId;
+            emails.add( user.email );
+            accepted.add( user );
+        }
+
+        hashPasswords.accept( accepted );
+
+        storeUsers.accept( accepted );
+        result.stored = accepted.size();
+
+        return result;
+    }
+
+    /**
+     * @return one JSON document per record; unparsable array elements can't be told apart, so a malformed array is
+     * reported as a single error and yields no records
+     */
+    private static List<String> split( String body, ImportResult result ) {
+        final List<String> records = new ArrayList<>();
+        final String trimmed = body.trim();
+
+        if( trimmed.startsWith( "[" ) ) {
+            try {
+                for( Object node : Binder.json.unmarshal( RECORDS, trimmed ) ) records.add( Binder.json.marshal( node ) );
+            } catch( RuntimeException e ) {
+                result.errors.add( new ImportResult.RecordError( 0, null, "Malformed JSON array: " + e.getMessage() ) );
+            }
+        } else for( String line : trimmed.split( "\r?\n" ) ) records.add( line.trim().isEmpty() ? null : line );
+
+        return records;
+    }
+
+    private static String validate( User user, String organizationId, User sessionUser, UserStorage userStorage,
+                                    Set<String> emails ) {
+        if( user.email == null || user.password == null || user.role == null )
+            return "email, password and role are required";
+        if( user.organizationId != null && !user.organizationId.equals( organizationId ) )
+            return "User belongs to another organization";
+        if( emails.contains( user.email ) ) return "Duplicate email";
+
+        if( userStorage.get( user.email ).map( existing -> !Objects.equals( existing.organizationId, organizationId ) )
+            .orElse( false ) ) return "Forbidden";
+        if( sessionUser.role != Role.ADMIN && user.role.precedence < sessionUser.role.precedence ) return "Forbidden";
+        if( sessionUser.role == Role.USER && !sessionUser.email.equals( user.email ) ) return "Forbidden";
+
+        return null;
+    }
+}
@@ -24,14 +24,136 @@
 
 package oap.ws.security.server;
 
-import oap.storage.FileStorage;
+import oap.ws.security.Principals;
+import oap.ws.security.Role;
 import oap.ws.security.User;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-public class UserStorage extends FileStorage<User> {
+public class UserStorage extends SnapshotStorage<User> {
+
+    /**
+     * organizationId -> emails, maintained on every store/delete so listing an organization's users doesn't scan
+     * the whole storage. {@link #userOrganizations} remembers what each email was indexed under. The indexes are
+     * only written while holding the storage's monitor, together with the change they reflect.
+     */
+    private final ConcurrentMap<String, Set<String>> organizationUsers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> userOrganizations = new ConcurrentHashMap<>();
+    /**
+     * email -> {@link Principals principal} of the stored user, replaced whenever the user is stored again.
+     */
+    private final ConcurrentMap<String, User> principals = new ConcurrentHashMap<>();
 
     public UserStorage( Path path ) {
         super( path, user -> user.email );
+
+        select().forEach( this::index );
+    }
+
+    @Override
+    public synchronized void store( User user ) {
+        super.store( user );
+
+        index( user );
+    }
+
+    @Override
+    public synchronized void store( Collection<User> users ) {
+        super.store( users );
+
+        users.forEach( this::index );
+    }
+
+    @Override
+    public synchronized void delete( String email ) {
+        super.delete( email );
+
+        unindex( email );
+        principals.remove( email );
+    }
+
+    @Override
+    public synchronized void clear() {
+        super.clear();
+
+        principals.clear();
+        organizationUsers.clear();
+        userOrganizations.clear();
+    }
+
+    @Override
+    protected void write( User user, DataOutputStream out ) throws IOException {
+        writeString( out, user.email );
+        writeString( out, user.password );
+        writeString( out, user.role != null ? user.role.name() : null );
+        writeString( out, user.organizationId );
+        writeString( out, user.organizationName );
+    }
+
+    @Override
+    protected User read( ByteBuffer in ) {
+        final User user = new User();
+        user.email = readString( in );
+        user.password = readString( in );
+        final String role = readString( in );
+        user.role = role != null ? Role.valueOf( role ) : null;
+        user.organizationId = readString( in );
+        user.organizationName = readString( in );
+
+        return user;
+    }
+
+    /**
+     * @return the shared, credential-free view of the user that tokens and sessions hold
+     */
+    public Optional<User> principal( String email ) {
+        return Optional.ofNullable( principals.get( email ) );
+    }
+
+    public List<User> selectByOrganization( String organizationId ) {
+        final Set<String> emails = organizationUsers.get( organizationId );
+        if( emails == null ) return Collections.emptyList();
+
+        final List<User> users = new ArrayList<>( emails.size() );
+        for( String email : emails )
+            get( email ).filter( user -> Objects.equals( user.organizationId, organizationId ) ).ifPresent( users::add );
+
+        return users;
+    }
+
+    private void index( User user ) {
+        principals.put( user.email, Principals.of( user ) );
+
+        final String previous = userOrganizations.get( user.email );
+        if( previous != null && previous.equals( user.organizationId ) ) return;
+
+        unindex( user.email );
+
+        if( user.organizationId != null ) {
+            userOrganizations.put( user.email, user.organizationId );
+            organizationUsers.computeIfAbsent( user.organizationId, id -> ConcurrentHashMap.newKeySet() )
+                .add( user.email );
+        }
+    }
+
+    private void unindex( String email ) {
+        final String organizationId = userOrganizations.remove( email );
+        if( organizationId == null ) return;
+
+        final Set<String> emails = organizationUsers.get( organizationId );
+        emails.remove( email );
+        if( emails.isEmpty() ) organizationUsers.remove( organizationId );
     }
 }
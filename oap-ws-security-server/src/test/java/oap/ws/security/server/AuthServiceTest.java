@@ -27,29 +27,51 @@ package oap.ws.security.server;
 import oap.testng.AbstractTest;
 import oap.testng.Env;
 import oap.util.Hash;
+import oap.ws.security.CachingTokenService;
+import oap.ws.security.LiveTokens;
+import oap.ws.security.Revocations;
 import oap.ws.security.Role;
+import oap.ws.security.SignedTokenService;
 import oap.ws.security.Token;
+import oap.ws.security.TokenService;
 import oap.ws.security.User;
-import org.testng.annotations.AfterTest;
-import org.testng.annotations.BeforeTest;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
 
 public class AuthServiceTest extends AbstractTest {
 
     private AuthService authService;
     private UserStorage userStorage;
 
-    @BeforeTest
+    @BeforeMethod
     public void setUp() {
         userStorage = new UserStorage( Env.tmpPath( "users" ) );
         authService = new AuthService( userStorage, 1, "test" );
     }
 
-    @AfterTest
+    @AfterMethod
     public void tearDown() {
         userStorage.clear();
     }
@@ -89,4 +111,300 @@ public class AuthServiceTest extends AbstractTest {
 
         assertFalse( authService.getToken( id ).isPresent() );
     }
+
+    @Test
+    public void testShouldIssueSingleTokenForConcurrentLogins() throws Exception {
+        final User user = new User();
+        user.email = "test@example.com";
+        user.password = Hash.sha256( "test", "12345" );
+        user.role = Role.ADMIN;
+
+        userStorage.store( user );
+
+        final ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        try {
+            final List<Callable<String>> logins = IntStream.range( 0, 64 )
+                .<Callable<String>>mapToObj( i -> () -> authService.generateToken( user.email, "12345" ).get().id )
+                .collect( Collectors.toList() );
+
+            final Set<String> ids = executor.invokeAll( logins )
+                .stream()
+                .map( this::get )
+                .collect( Collectors.toSet() );
+
+            assertEquals( ids.size(), 1 );
+            assertTrue( authService.getToken( ids.iterator().next() ).isPresent() );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testShouldIssueNewTokenAfterLogout() {
+        final User user = new User();
+        user.email = "test@example.com";
+        user.password = Hash.sha256( "test", "12345" );
+        user.role = Role.ADMIN;
+
+        userStorage.store( user );
+
+        final String id = authService.generateToken( user.email, "12345" ).get().id;
+
+        authService.invalidateUser( user.email );
+
+        assertFalse( authService.getToken( id ).isPresent() );
+
+        final String newId = authService.generateToken( user.email, "12345" ).get().id;
+
+        assertNotNull( newId );
+        assertFalse( id.equals( newId ) );
+        assertEquals( authService.generateToken( user.email, "12345" ).get().id, newId );
+    }
+
+    @Test
+    public void testShouldResolveTokensConcurrentlyWithLogins() throws Exception {
+        final List<String> emails = IntStream.range( 0, 16 )
+            .mapToObj( i -> "user" + i + "@example.com" )
+            .collect( Collectors.toList() );
+
+        for( String email : emails ) {
+            final User user = new User();
+            user.email = email;
+            user.password = Hash.sha256( "test", "12345" );
+            user.role = Role.USER;
+
+            userStorage.store( user );
+        }
+
+        final List<String> ids = emails.stream()
+            .map( email -> authService.generateToken( email, "12345" ).get().id )
+            .collect( Collectors.toList() );
+
+        final ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        try {
+            final List<Callable<Boolean>> tasks = IntStream.range( 0, 8 )
+                .<Callable<Boolean>>mapToObj( thread -> () -> {
+                    if( thread == 0 ) for( int i = 0; i < 100; i++ )
+                        authService.generateToken( emails.get( i % emails.size() ), "12345" );
+                    else for( int i = 0; i < 10000; i++ )
+                        if( !authService.getToken( ids.get( i % ids.size() ) ).isPresent() ) return false;
+
+                    return true;
+                } )
+                .collect( Collectors.toList() );
+
+            for( Future<Boolean> result : executor.invokeAll( tasks ) ) assertTrue( result.get() );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testShouldHashPasswordsOnHashingPool() {
+        final Pbkdf2PasswordHasher passwordHasher = new Pbkdf2PasswordHasher( "test", 10000 );
+        final List<User> users = IntStream.range( 0, 10 )
+            .mapToObj( i -> {
+                final User user = new User( Role.USER, "987654321", "user" + i + "@example.com" );
+                user.password = "password" + i;
+
+                return user;
+            } )
+            .collect( Collectors.toList() );
+
+        authService.hashPasswords( users );
+
+        for( int i = 0; i < users.size(); i++ )
+            assertTrue( passwordHasher.matches( "password" + i, users.get( i ).password ) );
+    }
+
+    @Test
+    public void testShouldPublishRevokedTokens() {
+        final User user = new User();
+        user.email = "test@example.com";
+        user.password = Hash.sha256( "test", "12345" );
+        user.role = Role.ADMIN;
+
+        userStorage.store( user );
+
+        final String id = authService.generateToken( user.email, "12345" ).get().id;
+        final long sequence = authService.revocations( 0 ).sequence;
+
+        authService.invalidateUser( user.email );
+
+        final Revocations revocations = authService.revocations( sequence );
+
+        assertTrue( revocations.complete );
+        assertEquals( revocations.sequence, sequence + 1 );
+        assertEquals( revocations.tokenIds, Collections.singletonList( id ) );
+        assertFalse( authService.revocations( sequence + 2 ).complete );
+    }
+
+    @Test
+    public void testShouldUpgradeLegacyPasswordHash() {
+        final User user = new User();
+        user.email = "test@example.com";
+        user.password = Hash.sha256( "test", "12345" );
+        user.role = Role.ADMIN;
+
+        userStorage.store( user );
+
+        assertTrue( authService.generateToken( user.email, "12345" ).isPresent() );
+
+        final String upgraded = userStorage.get( user.email ).get().password;
+
+        assertTrue( upgraded.startsWith( "pbkdf2-sha256$" ) );
+
+        authService.invalidateUser( user.email );
+
+        assertTrue( authService.generateToken( user.email, "12345" ).isPresent() );
+        assertFalse( authService.generateToken( user.email, "54321" ).isPresent() );
+        assertEquals( userStorage.get( user.email ).get().password, upgraded );
+    }
+
+    @Test
+    public void testShouldShareCurrentPrincipalWithoutCredentials() {
+        final User user = new User( Role.USER, "987654321", "test@example.com" );
+        user.password = Hash.sha256( "test", "12345" );
+
+        userStorage.store( user );
+
+        final Token token = authService.generateToken( user.email, "12345" ).get();
+        assertNull( token.user.password );
+        assertSame( authService.getToken( token.id ).get().user, userStorage.principal( user.email ).get() );
+
+        final User promoted = userStorage.get( user.email ).get();
+        promoted.role = Role.ORGANIZATION_ADMIN;
+        userStorage.store( promoted );
+
+        final User principal = authService.getToken( token.id ).get().user;
+        assertEquals( principal.role, Role.ORGANIZATION_ADMIN );
+        assertSame( principal, userStorage.principal( user.email ).get() );
+    }
+
+    @Test( expectedExceptions = IllegalArgumentException.class )
+    public void testShouldRejectEmptyRevocationLog() {
+        new AuthService( userStorage, new HeapTokenStore( 1 ), new Pbkdf2PasswordHasher( "test", 1 ), 0, 0, "", 0 );
+    }
+
+    @Test
+    public void testShouldRejectIdsMissingFromReplicatedFilter() {
+        final User user = new User( Role.USER, "987654321", "test@example.com" );
+        user.password = Hash.sha256( "test", "12345" );
+
+        userStorage.store( user );
+
+        authService = new AuthService( userStorage, new HeapTokenStore( 1 ), new Pbkdf2PasswordHasher( "test", 10000 ),
+            0, 10000, "", 0, -1, 1000 );
+        final CachingTokenService cachingTokenService =
+            new CachingTokenService( new DefaultTokenService( authService ), 100, 60000, 60000 );
+        cachingTokenService.run();
+
+        final Token token = authService.generateToken( user.email, "12345" ).get();
+        assertTrue( cachingTokenService.getToken( token.id ).isPresent() );
+
+        final long epoch = authService.liveTokens( 0, 0 ).epoch;
+        for( int i = 1; i <= 10; i++ )
+            assertFalse( cachingTokenService.getToken( LiveTokens.reservedId( epoch, i ) ).isPresent() );
+        assertTrue( ( Long ) cachingTokenService.stats().get( "filtered" ) >= 8 );
+
+        cachingTokenService.run();
+        authService.invalidateUser( user.email );
+        cachingTokenService.run();
+        cachingTokenService.invalidateAll();
+
+        assertFalse( cachingTokenService.getToken( token.id ).isPresent() );
+    }
+
+    @Test
+    public void testShouldResolveTokensIssuedInBurstBetweenPolls() {
+        authService = new AuthService( userStorage, new HeapTokenStore( 1 ), new Pbkdf2PasswordHasher( "test", 1 ),
+            0, 10000, "", 0, -1, 10000 );
+        final CachingTokenService cachingTokenService =
+            new CachingTokenService( new DefaultTokenService( authService ), 10000, 60000, 60000 );
+        cachingTokenService.run();
+
+        for( int i = 0; i < 5000; i++ ) {
+            final User user = new User( Role.USER, "987654321", "burst" + i + "@example.com" );
+            user.password = Hash.sha256( "test", "12345" );
+            userStorage.store( user );
+
+            final Token token = authService.generateToken( user.email, "12345" ).get();
+            assertTrue( cachingTokenService.getToken( token.id ).isPresent() );
+        }
+
+        assertTrue( ( Long ) cachingTokenService.stats().get( "unfiltered" ) > 0 );
+    }
+
+    @Test
+    public void testShouldNotReviveRevokedSignedTokensAfterLogOverflowOrRestart() throws InterruptedException {
+        for( int i = 0; i < 4; i++ ) {
+            final User user = new User( Role.USER, "987654321", "user" + i + "@example.com" );
+            user.password = Hash.sha256( "test", "12345" );
+            userStorage.store( user );
+        }
+
+        final AtomicReference<AuthService> server = new AtomicReference<>( signingAuthService() );
+        final TokenService remote = new TokenService() {
+            @Override
+            public Optional<Token> getToken( String tokenId ) {
+                return server.get().getToken( tokenId );
+            }
+
+            @Override
+            public Map<String, Token> getTokens( Collection<String> tokenIds ) {
+                return server.get().getTokens( tokenIds );
+            }
+
+            @Override
+            public Revocations revocations( long since ) {
+                return server.get().revocations( since );
+            }
+        };
+        final CachingTokenService cachingTokenService =
+            new CachingTokenService( new SignedTokenService( remote, "secret" ), 100, 60000, 0, 100 );
+
+        cachingTokenService.run();
+        Thread.sleep( 150 );
+        cachingTokenService.run();
+
+        final Token overflowed = server.get().generateToken( "user0@example.com", "12345" ).get();
+        assertTrue( cachingTokenService.getToken( overflowed.id ).isPresent() );
+
+        server.get().invalidateUser( "user0@example.com" );
+        for( int i = 1; i < 4; i++ ) {
+            server.get().generateToken( "user" + i + "@example.com", "12345" );
+            server.get().invalidateUser( "user" + i + "@example.com" );
+        }
+        cachingTokenService.run();
+
+        assertFalse( cachingTokenService.getToken( overflowed.id ).isPresent() );
+
+        Thread.sleep( 150 );
+        cachingTokenService.run();
+
+        final Token restarted = server.get().generateToken( "user1@example.com", "12345" ).get();
+        assertTrue( cachingTokenService.getToken( restarted.id ).isPresent() );
+
+        server.get().invalidateUser( "user1@example.com" );
+        server.set( signingAuthService() );
+        cachingTokenService.run();
+
+        assertFalse( cachingTokenService.getToken( restarted.id ).isPresent() );
+    }
+
+    /**
+     * Signs tokens and keeps only the last two revocations.
+     */
+    private AuthService signingAuthService() {
+        return new AuthService( userStorage, new HeapTokenStore( 1 ), new Pbkdf2PasswordHasher( "test", 1 ), 1, 2,
+            "secret", 15 );
+    }
+
+    private <T> T get( Future<T> future ) {
+        try {
+            return future.get();
+        } catch( Exception e ) {
+            throw new IllegalStateException( e );
+        }
+    }
 }
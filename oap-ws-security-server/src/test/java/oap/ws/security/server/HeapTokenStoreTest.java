@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import com.google.common.base.Ticker;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import oap.ws.security.User;
+import org.joda.time.DateTime;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class HeapTokenStoreTest {
+
+    @Test
+    public void testShouldEvictBeyondMaximumSize() {
+        final HeapTokenStore store = new HeapTokenStore( 1, 100, 0 );
+        final List<Token> removed = new ArrayList<>();
+        store.onRemoval( removed::add );
+
+        for( int i = 0; i < 1000; i++ ) store.put( token( "user" + i + "@example.com" ) );
+
+        assertTrue( store.size() <= 100 );
+        assertEquals( store.size() + removed.size(), 1000 );
+        assertEquals( store.stats().get( "evictions" ), ( long ) removed.size() );
+    }
+
+    @Test
+    public void testShouldEvictBeyondMaximumWeight() {
+        final Token token = token( "test@example.com" );
+        final HeapTokenStore store = new HeapTokenStore( 1, 0, HeapTokenStore.weight( token ) * 100L );
+
+        for( int i = 0; i < 1000; i++ ) store.put( token( "test@example.com" ) );
+
+        assertTrue( store.size() <= 100 );
+    }
+
+    @Test
+    public void testShouldSweepExpiredTokens() {
+        final AtomicLong now = new AtomicLong();
+        final HeapTokenStore store = new HeapTokenStore( 1, 0, 0, new Ticker() {
+            @Override
+            public long read() {
+                return now.get();
+            }
+        } );
+        final TokenSweeper sweeper = new TokenSweeper( store );
+        final List<Token> removed = new ArrayList<>();
+        store.onRemoval( removed::add );
+
+        for( int i = 0; i < 10; i++ ) store.put( token( "user" + i + "@example.com" ) );
+        now.set( TimeUnit.MINUTES.toNanos( 2 ) );
+        sweeper.run();
+
+        assertEquals( store.size(), 0 );
+        assertEquals( removed.size(), 10 );
+        assertEquals( sweeper.stats().get( "freed" ), 10L );
+    }
+
+    @Test
+    public void testShouldKeepLastAccessOfRestoredTokens() {
+        final AtomicLong now = new AtomicLong();
+        final HeapTokenStore store = new HeapTokenStore( 1, 0, 0, new Ticker() {
+            @Override
+            public long read() {
+                return now.get();
+            }
+        } );
+
+        final Token idle = token( "idle@example.com" );
+        final Token recent = token( "recent@example.com" );
+        store.restore( idle, System.currentTimeMillis() - TimeUnit.SECONDS.toMillis( 50 ) );
+        store.restore( recent, System.currentTimeMillis() );
+
+        now.set( TimeUnit.SECONDS.toNanos( 20 ) );
+
+        assertFalse( store.get( idle.id ).isPresent() );
+        assertTrue( store.get( recent.id ).isPresent() );
+
+        now.set( TimeUnit.SECONDS.toNanos( 70 ) );
+
+        assertTrue( store.get( recent.id ).isPresent() );
+    }
+
+    @Test( expectedExceptions = IllegalArgumentException.class )
+    public void testShouldRejectSizeAndWeightTogether() {
+        new HeapTokenStore( 1, 100, 100 );
+    }
+
+    private static Token token( String email ) {
+        final Token token = new Token();
+        token.id = UUID.randomUUID().toString();
+        token.user = new User( Role.USER, "org", email );
+        token.created = DateTime.now();
+
+        return token;
+    }
+}
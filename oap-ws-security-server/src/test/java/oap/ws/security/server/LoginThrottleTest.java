@@ -0,0 +1,74 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class LoginThrottleTest {
+
+    @Test
+    public void testShouldRefillBucketOverTime() {
+        final LoginThrottle.TokenBuckets buckets = new LoginThrottle.TokenBuckets( 1024, 3, 60 );
+        final long now = 1000000L;
+
+        assertTrue( buckets.tryAcquire( "test@example.com", now ) );
+        assertTrue( buckets.tryAcquire( "test@example.com", now ) );
+        assertTrue( buckets.tryAcquire( "test@example.com", now ) );
+        assertFalse( buckets.tryAcquire( "test@example.com", now + 500 ) );
+
+        assertTrue( buckets.tryAcquire( "test@example.com", now + 1000 ) );
+        assertFalse( buckets.tryAcquire( "test@example.com", now + 1500 ) );
+
+        assertTrue( buckets.tryAcquire( "test@example.com", now + 60000 ) );
+    }
+
+    @Test
+    public void testShouldThrottleByEmailAndClientAndConcurrency() {
+        final LoginThrottle loginThrottle = new LoginThrottle( 1024, 1, 1, 2, 1, 1 );
+
+        assertTrue( loginThrottle.allow( "a@example.com", "10.0.0.1" ) );
+        assertFalse( loginThrottle.allow( "a@example.com", "10.0.0.2" ) );
+        assertTrue( loginThrottle.allow( "b@example.com", "10.0.0.1" ) );
+        assertFalse( loginThrottle.allow( "c@example.com", "10.0.0.1" ) );
+
+        assertTrue( loginThrottle.enter() );
+        assertFalse( loginThrottle.enter() );
+        loginThrottle.exit();
+        assertTrue( loginThrottle.enter() );
+    }
+
+    @Test
+    public void testUnlimitedShouldAllowEverything() {
+        final LoginThrottle loginThrottle = LoginThrottle.unlimited();
+
+        for( int i = 0; i < 1000; i++ ) {
+            assertTrue( loginThrottle.allow( "test@example.com", "10.0.0.1" ) );
+            assertTrue( loginThrottle.enter() );
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import oap.ws.security.User;
+import org.joda.time.DateTime;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class OffHeapTokenStoreTest extends AbstractTest {
+
+    private UserStorage userStorage;
+
+    @BeforeMethod
+    public void setUp() {
+        userStorage = new UserStorage( Env.tmpPath( "users" ) );
+        userStorage.store( new User( Role.USER, "org", "test@example.com" ) );
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        userStorage.clear();
+    }
+
+    @Test
+    public void testShouldBuildTokenOnRead() {
+        final OffHeapTokenStore store = new OffHeapTokenStore( userStorage, 1, 1000 );
+        final Token token = token( "test@example.com" );
+        token.expires = token.created.plusMinutes( 5 );
+
+        store.put( token );
+
+        final Token read = store.get( token.id ).get();
+        assertEquals( read.id, token.id );
+        assertEquals( read.user.email, "test@example.com" );
+        assertEquals( read.user.role, Role.USER );
+        assertEquals( read.created, token.created );
+        assertEquals( read.expires, token.expires );
+        assertEquals( store.getAll( Arrays.asList( token.id, UUID.randomUUID().toString(), "junk" ) ).keySet(),
+            Collections.singleton( token.id ) );
+    }
+
+    @Test
+    public void testShouldFindRemainingTokensAfterRemovals() {
+        final OffHeapTokenStore store = new OffHeapTokenStore( userStorage, 1, 10000 );
+        final List<Token> tokens = new ArrayList<>();
+        for( int i = 0; i < 5000; i++ ) {
+            final Token token = token( "test@example.com" );
+            store.put( token );
+            tokens.add( token );
+        }
+
+        for( int i = 0; i < tokens.size(); i += 2 ) store.invalidate( tokens.get( i ).id );
+
+        assertEquals( store.size(), 2500 );
+        for( int i = 0; i < tokens.size(); i++ )
+            assertEquals( store.get( tokens.get( i ).id ).isPresent(), i % 2 == 1, "token " + i );
+    }
+
+    @Test
+    public void testShouldExpireAfterAccessAndNotifyRemoval() throws InterruptedException {
+        final OffHeapTokenStore store = new OffHeapTokenStore( userStorage, 0, 1000 );
+        final List<Token> removed = new ArrayList<>();
+        store.onRemoval( removed::add );
+        final Token token = token( "test@example.com" );
+
+        store.put( token );
+        Thread.sleep( 10 );
+        store.cleanUp();
+
+        assertEquals( store.size(), 0 );
+        assertEquals( removed.size(), 1 );
+        assertEquals( removed.get( 0 ).id, token.id );
+        assertFalse( store.get( token.id ).isPresent() );
+    }
+
+    @Test
+    public void testShouldEvictLongestIdleWhenFull() {
+        final OffHeapTokenStore store = new OffHeapTokenStore( userStorage, 1, OffHeapTokenStore.SEGMENTS );
+        final List<Token> removed = new ArrayList<>();
+        store.onRemoval( removed::add );
+
+        for( int i = 0; i < 1000; i++ ) store.put( token( "test@example.com" ) );
+
+        assertTrue( store.size() <= OffHeapTokenStore.SEGMENTS );
+        assertEquals( store.size() + removed.size(), 1000 );
+        assertEquals( store.stats().get( "evictions" ), ( long ) removed.size() );
+    }
+
+    @Test
+    public void testShouldPreferExpiredTokensWhenFull() {
+        final OffHeapTokenStore store = new OffHeapTokenStore( userStorage, 0, OffHeapTokenStore.SEGMENTS );
+        final List<Token> removed = new ArrayList<>();
+        store.onRemoval( removed::add );
+
+        for( int i = 0; i < 1000; i++ ) store.put( token( "test@example.com" ) );
+
+        assertEquals( store.size() + removed.size(), 1000 );
+        assertEquals( store.stats().get( "evictions" ), 0L );
+        assertEquals( store.stats().get( "expired" ), ( long ) removed.size() );
+    }
+
+    @Test
+    public void testShouldDropTokensOfDeletedUsers() {
+        final OffHeapTokenStore store = new OffHeapTokenStore( userStorage, 1, 1000 );
+        final Token token = token( "test@example.com" );
+        store.put( token );
+
+        userStorage.delete( "test@example.com" );
+
+        assertFalse( store.get( token.id ).isPresent() );
+        assertEquals( store.size(), 0 );
+    }
+
+    @Test( expectedExceptions = IllegalArgumentException.class )
+    public void testShouldRejectNonUuidIds() {
+        final Token token = token( "test@example.com" );
+        token.id = "signed.token";
+
+        new OffHeapTokenStore( userStorage, 1, 1000 ).put( token );
+    }
+
+    @Test
+    public void testShouldAcceptOnlyCanonicalUuids() {
+        final String id = UUID.randomUUID().toString();
+
+        assertEquals( OffHeapTokenStore.uuidStart( id ), 0 );
+        assertEquals( OffHeapTokenStore.uuidStart( "12:" + id ), 3 );
+        assertEquals( OffHeapTokenStore.uuidStart( id.toUpperCase() ), -1 );
+        assertEquals( OffHeapTokenStore.uuidStart( "x:" + id ), -1 );
+        assertEquals( OffHeapTokenStore.uuidStart( "07:" + id ), -1 );
+        assertEquals( OffHeapTokenStore.uuidStart( "00:" + id ), -1 );
+        assertEquals( OffHeapTokenStore.uuidStart( "1-2-3-4-5" ), -1 );
+    }
+
+    @Test
+    public void testShouldKeepShardPrefix() {
+        final OffHeapTokenStore store = new OffHeapTokenStore( userStorage, 1, 1000 );
+        final List<Token> removed = new ArrayList<>();
+        store.onRemoval( removed::add );
+        final Token token = token( "test@example.com" );
+        final String uuid = token.id;
+        token.id = Shards.prefix( 2, uuid );
+
+        store.put( token );
+
+        assertFalse( store.get( uuid ).isPresent() );
+        assertFalse( store.get( Shards.prefix( 1, uuid ) ).isPresent() );
+        assertFalse( store.get( "02:" + uuid ).isPresent() );
+        assertEquals( store.get( token.id ).get().id, token.id );
+
+        store.invalidate( token.id );
+        assertEquals( removed.get( 0 ).id, token.id );
+    }
+
+    private static Token token( String email ) {
+        final Token token = new Token();
+        token.id = UUID.randomUUID().toString();
+        token.user = new User( Role.USER, "org", email );
+        token.created = new DateTime( System.currentTimeMillis() );
+
+        return token;
+    }
+}
@@ -34,6 +34,7 @@ import oap.testng.Env;
 import oap.ws.SessionManager;
 import oap.ws.WebServices;
 import oap.ws.WsConfig;
+import oap.ws.security.AuditLog;
 import oap.ws.security.Organization;
 import oap.ws.security.Role;
 import oap.ws.security.User;
@@ -47,12 +48,14 @@ import java.io.IOException;
 
 import static oap.http.testng.HttpAsserts.HTTP_PREFIX;
 import static oap.http.testng.HttpAsserts.assertDelete;
+import static oap.http.testng.HttpAsserts.assertGet;
 import static oap.http.testng.HttpAsserts.assertPost;
 import static oap.http.testng.HttpAsserts.reset;
 import static oap.ws.validate.testng.ValidationErrorsAssertion.validating;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 public class OrganizationWSTest {
 
@@ -240,4 +243,95 @@ public class OrganizationWSTest {
 
         assertNotNull( userStorage.get( "test@example.com" ).isPresent() );
     }
+
+    @Test
+    public void testShouldListUsersOfOrganization() {
+        final User userA = new User( Role.USER, "12345", "a@example.com" );
+        userA.password = "123456789";
+        final User userB = new User( Role.USER, "12345", "b@example.com" );
+        userB.password = "123456789";
+        final User userC = new User( Role.USER, "98765", "c@example.com" );
+        userC.password = "123456789";
+
+        userStorage.store( userA );
+        userStorage.store( userB );
+        userStorage.store( userC );
+
+        assertEquals( userStorage.selectByOrganization( "12345" ).size(), 2 );
+
+        for( String query : new String[] { "", "?limit=1", "?stream=true" } )
+            assertGet( HTTP_PREFIX + "/organization/12345/users" + query )
+                .isOk()
+                .is( response -> hasUserWithoutPassword( response.contentString.get(), "a@example.com" ) );
+
+        final User movedUser = new User( Role.USER, "98765", "b@example.com" );
+        movedUser.password = "123456789";
+        userStorage.store( movedUser );
+        userStorage.delete( "c@example.com" );
+
+        assertEquals( userStorage.selectByOrganization( "12345" ).size(), 1 );
+        assertEquals( userStorage.selectByOrganization( "98765" ).get( 0 ).email, "b@example.com" );
+        assertTrue( userStorage.selectByOrganization( "00000" ).isEmpty() );
+    }
+
+    @Test
+    public void testShouldImportUsersAndReportRejectedRecords() {
+        userStorage.store( new User( Role.USER, "98765", "other@example.com" ) );
+
+        final User sessionUser = new User( Role.ORGANIZATION_ADMIN, "12345", "admin@example.com" );
+
+        final ImportResult result = organizationWS.importUsers(
+            "{\"email\":\"a@example.com\",\"password\":\"1\",\"role\":\"USER\"}\n"
+                + "{\"email\":\"b@example.com\",\"password\":\"2\",\"role\":\"ADMIN\"}\n"
+                + "{\"email\":\"other@example.com\",\"password\":\"3\",\"role\":\"USER\"}\n"
+                + "not json\n"
+                + "{\"email\":\"a@example.com\",\"password\":\"4\",\"role\":\"USER\"}\n",
+            "12345", sessionUser );
+
+        assertEquals( result.stored, 1 );
+        assertEquals( result.errors.size(), 4 );
+        assertEquals( result.errors.get( 0 ).index, 1 );
+        assertEquals( result.errors.get( 1 ).email, "other@example.com" );
+        assertEquals( result.errors.get( 2 ).index, 3 );
+        assertEquals( result.errors.get( 3 ).error, "Duplicate email" );
+
+        final User imported = userStorage.get( "a@example.com" ).get();
+        assertEquals( imported.organizationId, "12345" );
+        assertTrue( imported.password.startsWith( "pbkdf2-sha256$" ) );
+
+        final ImportResult arrayResult = organizationWS.importUsers(
+            "[{\"email\":\"c@example.com\",\"password\":\"1\",\"role\":\"USER\"},"
+                + "{\"email\":\"d@example.com\",\"password\":\"2\",\"role\":\"ORGANIZATION_ADMIN\"}]",
+            "12345", sessionUser );
+
+        assertEquals( arrayResult.stored, 2 );
+        assertTrue( arrayResult.errors.isEmpty() );
+        assertEquals( userStorage.selectByOrganization( "12345" ).size(), 3 );
+    }
+
+    @Test
+    public void testShouldAnswerTooManyRequestsWhenHashingPoolIsFull() {
+        final AuthService authService = new AuthService( userStorage, 1, "test" );
+        authService.stop();
+
+        final OrganizationWS rejectingWS = new OrganizationWS( organizationStorage, userStorage,
+            new Pbkdf2PasswordHasher( "test", 10000 ), AuditLog.disabled(), authService );
+        final User sessionUser = new User( Role.ADMIN, "12345", "admin@example.com" );
+
+        final User user = new User( Role.USER, "12345", "test@example.com" );
+        user.password = "123456789";
+
+        assertEquals( rejectingWS.userStore( user, "12345", sessionUser ).code, 429 );
+        assertEquals( rejectingWS.usersImport( "{\"email\":\"a@example.com\",\"password\":\"1\",\"role\":\"USER\"}",
+            "12345", sessionUser ).code, 429 );
+        assertFalse( userStorage.get( "test@example.com" ).isPresent() );
+        assertFalse( userStorage.get( "a@example.com" ).isPresent() );
+    }
+
+    private static boolean hasUserWithoutPassword( String content, String email ) {
+        assertTrue( content.contains( email ), content );
+        assertFalse( content.contains( "123456789" ), content );
+
+        return true;
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.ws.security.Organization;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class PaginationTest {
+
+    @Test
+    public void testShouldWalkAllPagesInKeyOrder() {
+        final List<Organization> organizations = IntStream.range( 0, 25 )
+            .mapToObj( i -> new Organization( String.format( "org-%02d", ( i * 7 ) % 25 ) ) )
+            .collect( toList() );
+
+        final List<String> ids = new ArrayList<>();
+        Optional<String> after = Optional.empty();
+        int pages = 0;
+        do {
+            final Pagination.Page<Organization> page = Pagination.page( organizations.stream(),
+                organization -> organization.id, 10, after );
+
+            page.items.forEach( organization -> ids.add( organization.id ) );
+            after = page.next.map( Pagination::decode );
+            pages++;
+        } while( after.isPresent() );
+
+        assertEquals( pages, 3 );
+        assertEquals( ids, IntStream.range( 0, 25 )
+            .mapToObj( i -> String.format( "org-%02d", i ) )
+            .collect( toList() ) );
+    }
+
+    @Test
+    public void testShouldNotReturnCursorForLastPage() {
+        final List<Organization> organizations = IntStream.range( 0, 10 )
+            .mapToObj( i -> new Organization( "org-" + i ) )
+            .collect( toList() );
+
+        final Pagination.Page<Organization> page = Pagination.page( organizations.stream(),
+            organization -> organization.id, 10, Optional.empty() );
+
+        assertEquals( page.items.size(), 10 );
+        assertFalse( page.next.isPresent() );
+    }
+}
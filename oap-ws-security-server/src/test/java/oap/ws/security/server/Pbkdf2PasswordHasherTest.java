@@ -0,0 +1,61 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.util.Hash;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+public class Pbkdf2PasswordHasherTest {
+
+    private final Pbkdf2PasswordHasher passwordHasher = new Pbkdf2PasswordHasher( "test", 1000 );
+
+    @Test
+    public void testShouldMatchHashedPassword() {
+        final String encoded = passwordHasher.hash( "12345" );
+
+        assertTrue( passwordHasher.matches( "12345", encoded ) );
+        assertFalse( passwordHasher.matches( "54321", encoded ) );
+        assertFalse( passwordHasher.needsRehash( encoded ) );
+        assertNotEquals( passwordHasher.hash( "12345" ), encoded );
+    }
+
+    @Test
+    public void testShouldMatchAndRehashLegacyOrWeakerHashes() {
+        final String legacy = Hash.sha256( "test", "12345" );
+
+        assertTrue( passwordHasher.matches( "12345", legacy ) );
+        assertFalse( passwordHasher.matches( "54321", legacy ) );
+        assertTrue( passwordHasher.needsRehash( legacy ) );
+
+        final String weaker = new Pbkdf2PasswordHasher( "test", 500 ).hash( "12345" );
+
+        assertTrue( passwordHasher.matches( "12345", weaker ) );
+        assertTrue( passwordHasher.needsRehash( weaker ) );
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import oap.util.Hash;
+import oap.ws.security.Revocations;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import oap.ws.security.User;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class ShardRouterTest extends AbstractTest {
+
+    private static final int SHARDS = 3;
+
+    private List<UserStorage> userStorages;
+    private List<AuthShard> nodes;
+    private List<ShardRouter> routers;
+
+    @BeforeMethod
+    public void setUp() {
+        userStorages = new ArrayList<>();
+        nodes = new ArrayList<>();
+        for( int shard = 0; shard < SHARDS; shard++ ) {
+            final UserStorage userStorage = new UserStorage( Env.tmpPath( "users" + shard ) );
+            userStorages.add( userStorage );
+            nodes.add( new AuthService( userStorage, new HeapTokenStore( 1 ), new Pbkdf2PasswordHasher( "test", 1 ),
+                1, 100, "", 0, shard ) );
+        }
+
+        routers = new ArrayList<>();
+        for( int shard = 0; shard < SHARDS; shard++ ) routers.add( new ShardRouter( shard, nodes ) );
+
+        for( int i = 0; i < 30; i++ ) routers.get( i % SHARDS ).storeUsers( Collections.singletonList( user( i ) ) );
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        userStorages.forEach( UserStorage::clear );
+    }
+
+    private static User user( int i ) {
+        final User user = new User( Role.USER, "org", "user" + i + "@example.com" );
+        user.password = Hash.sha256( "test", "12345" );
+
+        return user;
+    }
+
+    @Test
+    public void testShouldIssueOnHomeShardAndResolveAnywhere() {
+        final List<Token> tokens = new ArrayList<>();
+        for( int i = 0; i < 30; i++ ) {
+            final String email = "user" + i + "@example.com";
+            final Token token = routers.get( i % SHARDS ).generateToken( email, "12345" ).get();
+
+            assertEquals( Shards.shardOf( token.id ), Shards.home( email, SHARDS ) );
+            tokens.add( token );
+        }
+
+        for( Token token : tokens ) {
+            final int owner = Shards.shardOf( token.id );
+            for( int other = 0; other < SHARDS; other++ )
+                if( other != owner ) assertFalse( nodes.get( other ).getToken( token.id ).isPresent() );
+
+            for( ShardRouter router : routers )
+                assertEquals( router.getToken( token.id ).get().user.email, token.user.email );
+        }
+
+        final List<String> ids = new ArrayList<>();
+        for( Token token : tokens ) ids.add( token.id );
+        ids.add( "garbage" );
+        ids.add( "7:garbage" );
+
+        assertEquals( routers.get( 0 ).getTokens( ids ).size(), tokens.size() );
+    }
+
+    @Test
+    public void testShouldStoreUsersOnHomeShardAndCopyThemEverywhere() {
+        final User user = user( 100 );
+        final int home = Shards.home( user.email, SHARDS );
+
+        routers.get( ( home + 1 ) % SHARDS ).storeUsers( Collections.singletonList( user ) );
+
+        for( UserStorage userStorage : userStorages ) assertTrue( userStorage.get( user.email ).isPresent() );
+        for( ShardRouter router : routers ) assertTrue( router.generateToken( user.email, "12345" ).isPresent() );
+
+        routers.get( ( home + 2 ) % SHARDS ).deleteUser( user.email );
+
+        for( UserStorage userStorage : userStorages ) assertFalse( userStorage.get( user.email ).isPresent() );
+        assertFalse( routers.get( home ).generateToken( user.email, "12345" ).isPresent() );
+    }
+
+    @Test
+    public void testShouldNotResolveZeroPaddedShardPrefixes() {
+        final Token token = routers.get( 0 ).generateToken( "user1@example.com", "12345" ).get();
+
+        for( ShardRouter router : routers ) {
+            assertTrue( router.getToken( token.id ).isPresent() );
+            assertFalse( router.getToken( "0" + token.id ).isPresent() );
+            assertTrue( router.getTokens( Collections.singletonList( "0" + token.id ) ).isEmpty() );
+        }
+        assertEquals( Shards.shardOf( "07:" + UUID.randomUUID() ), -1 );
+        assertEquals( Shards.shardOf( "7:" + UUID.randomUUID() ), 7 );
+    }
+
+    @Test
+    public void testShouldCopyRevocationsToEveryShard() {
+        final String email = "user1@example.com";
+        final Token token = routers.get( 0 ).generateToken( email, "12345" ).get();
+
+        assertEquals( routers.get( 1 ).invalidateUser( email ), Optional.of( token.id ) );
+
+        assertFalse( routers.get( 2 ).getToken( token.id ).isPresent() );
+        for( ShardRouter router : routers ) {
+            final Revocations revocations = router.revocations( 0 );
+            assertEquals( revocations.tokenIds, Arrays.asList( token.id ) );
+        }
+    }
+
+    @Test
+    public void testShouldKeepServingWhenShardIsDown() {
+        final int down = Shards.home( "user0@example.com", SHARDS );
+        final List<AuthShard> partial = new ArrayList<>( nodes );
+        partial.set( down, new Unreachable() );
+
+        final Token lost = routers.get( 0 ).generateToken( "user0@example.com", "12345" ).get();
+        Token kept = null;
+        for( int i = 1; kept == null; i++ ) {
+            final String email = "user" + i + "@example.com";
+            if( Shards.home( email, SHARDS ) != down ) kept = routers.get( 0 ).generateToken( email, "12345" ).get();
+        }
+
+        final ShardRouter router = new ShardRouter( down == 0 ? 1 : 0, partial );
+
+        assertFalse( router.getToken( lost.id ).isPresent() );
+        assertTrue( router.getToken( kept.id ).isPresent() );
+        assertEquals( router.getTokens( Arrays.asList( lost.id, kept.id ) ).keySet().size(), 1 );
+    }
+
+    private static class Unreachable implements AuthShard {
+        @Override
+        public Optional<Token> generateToken( String email, String password ) {
+            throw new IllegalStateException( "unreachable" );
+        }
+
+        @Override
+        public Optional<Token> getToken( String tokenId ) {
+            throw new IllegalStateException( "unreachable" );
+        }
+
+        @Override
+        public Map<String, Token> getTokens( Collection<String> tokenIds ) {
+            throw new IllegalStateException( "unreachable" );
+        }
+
+        @Override
+        public Optional<String> invalidateUser( String email ) {
+            throw new IllegalStateException( "unreachable" );
+        }
+
+        @Override
+        public void revoked( String tokenId ) {
+            throw new IllegalStateException( "unreachable" );
+        }
+
+        @Override
+        public Revocations revocations( long since ) {
+            throw new IllegalStateException( "unreachable" );
+        }
+
+        @Override
+        public void storeUsers( List<User> users ) {
+            throw new IllegalStateException( "unreachable" );
+        }
+
+        @Override
+        public void deleteUser( String email ) {
+            throw new IllegalStateException( "unreachable" );
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import oap.ws.security.Organization;
+import oap.ws.security.Role;
+import oap.ws.security.User;
+import org.testng.annotations.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+public class SnapshotStorageTest extends AbstractTest {
+
+    @Test
+    public void testShouldRestoreSnapshotAndChanges() {
+        final Path path = Env.tmpPath( "organizations" );
+
+        final OrganizationStorage storage = new OrganizationStorage( path );
+        IntStream.range( 0, 25000 ).forEach( i -> storage.store( new Organization( "o" + i ) ) );
+        final Organization organization = new Organization( "test" );
+        organization.name = "Test";
+        storage.store( organization );
+        storage.delete( "o1" );
+        storage.awaitCompaction();
+
+        final OrganizationStorage restored = new OrganizationStorage( path );
+        assertEquals( restored.size(), 25000 );
+        assertEquals( restored.get( "test" ).get(), organization );
+        assertNull( restored.get( "test" ).get().description );
+        assertFalse( restored.get( "o1" ).isPresent() );
+
+        restored.stop();
+        assertEquals( new OrganizationStorage( path ).size(), 25000 );
+    }
+
+    @Test
+    public void testShouldIgnoreTruncatedChange() throws Exception {
+        final Path path = Env.tmpPath( "users" );
+
+        final UserStorage storage = new UserStorage( path );
+        final User user = new User( Role.ORGANIZATION_ADMIN, "987654321", "test@example.com" );
+        user.password = "hash";
+        storage.store( user );
+        storage.store( new User( Role.USER, "987654321", "other@example.com" ) );
+        storage.fsync();
+
+        final Path changes = Files.list( path ).filter( file -> file.getFileName().toString().startsWith( "changes-" ) )
+            .findFirst().get();
+        try( FileChannel channel = FileChannel.open( changes, WRITE ) ) {
+            channel.truncate( channel.size() - 3 );
+        }
+
+        final UserStorage restored = new UserStorage( path );
+        assertEquals( restored.get( user.email ).get(), user );
+        assertFalse( restored.get( "other@example.com" ).isPresent() );
+        assertEquals( restored.selectByOrganization( "987654321" ).size(), 1 );
+
+        final User later = new User( Role.USER, "987654321", "later@example.com" );
+        restored.store( later );
+        restored.fsync();
+
+        final UserStorage reloaded = new UserStorage( path );
+        assertEquals( reloaded.get( user.email ).get(), user );
+        assertEquals( reloaded.get( later.email ).get(), later );
+        assertEquals( reloaded.selectByOrganization( "987654321" ).size(), 2 );
+    }
+}
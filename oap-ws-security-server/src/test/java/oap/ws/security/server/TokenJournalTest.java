@@ -0,0 +1,165 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.testng.AbstractTest;
+import oap.testng.Env;
+import oap.util.Hash;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import oap.ws.security.User;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+public class TokenJournalTest extends AbstractTest {
+
+    private UserStorage userStorage;
+    private Path path;
+
+    @BeforeMethod
+    public void setUp() {
+        userStorage = new UserStorage( Env.tmpPath( "users" ) );
+        path = Env.tmpPath( "tokens" );
+
+        final User user = new User( Role.USER, "987654321", "test@example.com" );
+        user.password = Hash.sha256( "test", "12345" );
+
+        userStorage.store( user );
+    }
+
+    @Test
+    public void testShouldRestoreTokensAfterRestart() {
+        final AuthService authService = new AuthService( userStorage, 1, "test" );
+        final TokenJournal tokenJournal = new TokenJournal( authService, path );
+        tokenJournal.start();
+
+        final Token token = authService.generateToken( "test@example.com", "12345" ).get();
+
+        tokenJournal.stop();
+
+        final AuthService restarted = new AuthService( userStorage, 1, "test" );
+        final TokenJournal restartedJournal = new TokenJournal( restarted, path );
+        restartedJournal.start();
+
+        try {
+            final Token restored = restarted.getToken( token.id ).get();
+
+            assertEquals( restored.user.email, "test@example.com" );
+            assertEquals( restored.created, token.created );
+            assertEquals( restarted.generateToken( "test@example.com", "12345" ).get().id, token.id );
+        } finally {
+            restartedJournal.stop();
+        }
+    }
+
+    @Test
+    public void testShouldNotRestoreLoggedOutTokens() {
+        final AuthService authService = new AuthService( userStorage, 1, "test" );
+        final TokenJournal tokenJournal = new TokenJournal( authService, path );
+        tokenJournal.start();
+
+        final Token token = authService.generateToken( "test@example.com", "12345" ).get();
+        authService.invalidateUser( "test@example.com" );
+
+        tokenJournal.stop();
+
+        final AuthService restarted = new AuthService( userStorage, 1, "test" );
+        final TokenJournal restartedJournal = new TokenJournal( restarted, path );
+        restartedJournal.start();
+
+        try {
+            assertFalse( restarted.getToken( token.id ).isPresent() );
+            assertTrue( restarted.generateToken( "test@example.com", "12345" ).isPresent() );
+        } finally {
+            restartedJournal.stop();
+        }
+    }
+
+    @Test
+    public void testShouldCompactWhileRunning() throws Exception {
+        final AuthService authService = new AuthService( userStorage, 1, "test" );
+        final TokenJournal tokenJournal = new TokenJournal( authService, path );
+        tokenJournal.start();
+
+        final Token live = authService.generateToken( "test@example.com", "12345" ).get();
+        for( int i = 0; i < 2000; i++ ) {
+            final Token token = new Token();
+            token.id = UUID.randomUUID().toString();
+            token.user = live.user;
+            token.created = live.created;
+
+            tokenJournal.issued( token );
+            tokenJournal.removed( token );
+        }
+
+        final Path log = path.resolve( "tokens.log" );
+        final long deadline = System.currentTimeMillis() + 10000;
+        while( Files.size( log ) > 1024 && System.currentTimeMillis() < deadline ) Thread.sleep( 10 );
+
+        tokenJournal.stop();
+
+        assertTrue( Files.size( log ) <= 1024 );
+
+        final AuthService restarted = new AuthService( userStorage, 1, "test" );
+        final TokenJournal restartedJournal = new TokenJournal( restarted, path );
+        restartedJournal.start();
+
+        try {
+            assertNotNull( restarted.getToken( live.id ).orElse( null ) );
+        } finally {
+            restartedJournal.stop();
+        }
+    }
+
+    @Test
+    public void testShouldDropRecordsRatherThanBlockWhenFull() {
+        final AuthService authService = new AuthService( userStorage, 1, "test" );
+        final TokenJournal tokenJournal = new TokenJournal( authService, path, 1 );
+
+        final Token live = authService.generateToken( "test@example.com", "12345" ).get();
+        final long start = System.currentTimeMillis();
+        for( int i = 0; i < 10; i++ ) {
+            final Token token = new Token();
+            token.id = UUID.randomUUID().toString();
+            token.user = live.user;
+            token.created = live.created;
+
+            tokenJournal.issued( token );
+            tokenJournal.removed( token );
+        }
+
+        assertTrue( System.currentTimeMillis() - start < 5000 );
+        assertEquals( tokenJournal.stats().get( "dropped" ), 19L );
+    }
+}
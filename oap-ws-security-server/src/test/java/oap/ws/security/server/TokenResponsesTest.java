@@ -0,0 +1,115 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) Open Application Platform Authors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package oap.ws.security.server;
+
+import oap.http.HttpResponse;
+import oap.ws.security.Role;
+import oap.ws.security.Token;
+import oap.ws.security.User;
+import org.joda.time.DateTime;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.UUID;
+
+import static java.net.HttpURLConnection.HTTP_NOT_MODIFIED;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TokenResponsesTest {
+
+    private final TokenResponses tokenResponses = new TokenResponses( 100, 1 );
+
+    @Test
+    public void testShouldReuseRenderingWhileTokenIsUnchanged() {
+        final Token token = token();
+        final TokenResponses.Rendered rendered = tokenResponses.render( token );
+
+        assertSame( tokenResponses.render( token ), rendered );
+        assertFalse( rendered.json.contains( "secret" ) );
+
+        final Token copy = token();
+        copy.id = token.id;
+        copy.created = token.created;
+        assertSame( tokenResponses.render( copy ), rendered );
+
+        copy.user.role = Role.ADMIN;
+        final TokenResponses.Rendered changed = tokenResponses.render( copy );
+        assertNotSame( changed, rendered );
+        assertNotEquals( changed.etag, rendered.etag );
+    }
+
+    @Test
+    public void testShouldDropRenderingOfRemovedToken() {
+        final Token token = token();
+        final TokenResponses.Rendered rendered = tokenResponses.render( token );
+
+        tokenResponses.removed( token );
+
+        final TokenResponses.Rendered again = tokenResponses.render( token );
+        assertNotSame( again, rendered );
+        assertEquals( again.etag, rendered.etag );
+    }
+
+    @Test
+    public void testShouldAnswerNotModifiedForMatchingETag() {
+        final Token token = token();
+        final String etag = tokenResponses.render( token ).etag;
+
+        final HttpResponse notModified = tokenResponses.respond( token, Optional.of( etag ) );
+        final HttpResponse changed = tokenResponses.respond( token, Optional.of( "\"other\"" ) );
+        final HttpResponse unconditional = tokenResponses.respond( token, Optional.empty() );
+
+        assertEquals( notModified.code, HTTP_NOT_MODIFIED );
+        assertEquals( changed.code, HTTP_OK );
+        assertEquals( unconditional.code, HTTP_OK );
+    }
+
+    @Test
+    public void testShouldAssembleBatchFromRenderings() {
+        final Token token = token();
+        final String json = tokenResponses.json( Collections.singletonMap( token.id, token ) );
+
+        assertTrue( json.startsWith( "{\"" + token.id + "\":" ) );
+        assertTrue( json.endsWith( tokenResponses.render( token ).json + "}" ) );
+        assertEquals( tokenResponses.json( Collections.emptyMap() ), "{}" );
+    }
+
+    private static Token token() {
+        final Token token = new Token();
+        token.id = UUID.randomUUID().toString();
+        token.user = new User( Role.USER, "org", "test@example.com" );
+        token.user.password = "secret";
+        token.created = DateTime.now();
+
+        return token;
+    }
+}